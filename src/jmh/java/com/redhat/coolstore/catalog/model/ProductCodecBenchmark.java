@@ -0,0 +1,92 @@
+package com.redhat.coolstore.catalog.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+
+/**
+ * Encoding cost of a `/products` payload: JSON as served today
+ * ({@code Product.toJson().encode()}) against the CBOR codec. The payload
+ * sizes of both encodings are printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductCodecBenchmark {
+
+	@Param({ "1", "100", "10000" })
+	private int size;
+
+	private List<Product> products;
+
+	private Buffer cbor;
+
+	private String json;
+
+	@Setup
+	public void setup() {
+		products = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			Product product = new Product();
+			product.setItemId(Integer.toString(100000 + i));
+			product.setName("Product " + i);
+			product.setDesc("Description of catalog product number " + i);
+			product.setPrice(i + 0.99);
+			products.add(product);
+		}
+		json = encodeJson();
+		cbor = ProductCodec.encode(products);
+		System.out.println();
+		System.out.println("payload size for " + size + " products: json=" + json.getBytes().length + " bytes, cbor="
+				+ cbor.length() + " bytes");
+	}
+
+	private String encodeJson() {
+		JsonArray array = new JsonArray();
+		products.forEach(p -> array.add(p.toJson()));
+		return array.encode();
+	}
+
+	@Benchmark
+	public String encodeJsonArray() {
+		return encodeJson();
+	}
+
+	@Benchmark
+	public Buffer encodeCbor() {
+		return ProductCodec.encode(products);
+	}
+
+	@Benchmark
+	public List<Product> decodeJsonArray() {
+		JsonArray array = new JsonArray(json);
+		List<Product> decoded = new ArrayList<>(array.size());
+		for (int i = 0; i < array.size(); i++) {
+			decoded.add(new Product(array.getJsonObject(i)));
+		}
+		return decoded;
+	}
+
+	@Benchmark
+	public List<Product> decodeCbor() {
+		return ProductCodec.decodeProducts(cbor);
+	}
+}
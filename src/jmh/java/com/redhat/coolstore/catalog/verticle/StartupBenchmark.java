@@ -0,0 +1,89 @@
+package com.redhat.coolstore.catalog.verticle;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Cold start of the service: time from creating Vert.x and deploying
+ * {@link MainVerticle} to the first `/products` response, in a fresh JVM for
+ * every measurement, so class loading, the codegen proxies, the configuration
+ * and the deployments are all included. Runs on the file store, without the
+ * start delay of the catalog verticle.
+ * <p>
+ * JVM boot is not included: the `Startup:` log lines and `startup` in
+ * `/admin/stats` report the phases from the JVM start.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+	private File directory;
+
+	private int port;
+
+	private JsonObject config;
+
+	private Vertx vertx;
+
+	@Setup
+	public void setup() throws Exception {
+		directory = Files.createTempDirectory("startup").toFile();
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+		config = new JsonObject().put("catalog.http.port", port).put("catalog.store.type", "file")
+				.put("catalog.store.file.path", new File(directory, "products.jsonl").getAbsolutePath())
+				.put("catalog.start.delay", 0L);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		CountDownLatch closed = new CountDownLatch(1);
+		vertx.close(ar -> closed.countDown());
+		closed.await();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Benchmark
+	public void firstResponse() throws Exception {
+		vertx = Vertx.vertx();
+		CompletableFuture<Void> served = new CompletableFuture<>();
+		vertx.deployVerticle(new MainVerticle(), new DeploymentOptions().setConfig(config), ar -> {
+			if (ar.failed()) {
+				served.completeExceptionally(ar.cause());
+				return;
+			}
+			vertx.createHttpClient().get(port, "localhost", "/products", response -> {
+				response.bodyHandler(body -> served.complete(null));
+			}).exceptionHandler(served::completeExceptionally).end();
+		});
+		served.get(60, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,147 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Time for `concurrency` product reads issued at once from an event loop, and
+ * for as many writes, against the store backends.
+ * <p>
+ * The `file` backend runs on the dedicated worker pool or on virtual threads
+ * (`executor`, virtual threads need JDK 21+). The `mongo` backend is left out
+ * by default; run it against a scratch database with
+ * {@code -p backend=file,mongo -jvmArgs -Dcatalog.benchmark.mongo=mongodb://host:27017}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductStoreBenchmark {
+
+	private static final int PRODUCTS = 1000;
+
+	@Param({ "file" })
+	private String backend;
+
+	@Param({ "worker", "virtual" })
+	private String executor;
+
+	@Param({ "1", "16", "128" })
+	private int concurrency;
+
+	private Vertx vertx;
+
+	private Context context;
+
+	private ProductStore store;
+
+	private File directory;
+
+	private long version;
+
+	@Setup
+	public void setup() throws Exception {
+		vertx = Vertx.vertx();
+		context = vertx.getOrCreateContext();
+		directory = Files.createTempDirectory("product-store").toFile();
+		JsonObject config = new JsonObject().put("catalog.store.type", backend).put("catalog.store.executor", executor)
+				.put("catalog.store.file.path", new File(directory, "products.jsonl").getAbsolutePath())
+				.put("connection_string", System.getProperty("catalog.benchmark.mongo", "mongodb://localhost:27017"))
+				.put("db_name", "catalog-benchmark").put("catalog.store.worker.pool.size", 20);
+		store = ProductStore.create(vertx, config);
+		this.<Void>await(h -> store.open(h));
+		List<JsonObject> documents = new ArrayList<>(PRODUCTS);
+		for (int i = 0; i < PRODUCTS; i++) {
+			documents.add(document(i));
+		}
+		this.<Void>await(h -> store.saveAll(documents, h));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		this.<Void>await(h -> store.close(h));
+		CountDownLatch closed = new CountDownLatch(1);
+		vertx.close(ar -> closed.countDown());
+		closed.await();
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private JsonObject document(int i) {
+		String id = Integer.toString(100000 + i);
+		return new JsonObject().put("_id", id).put("itemId", id).put("name", "Product " + i)
+				.put("desc", "Description of catalog product number " + i).put("price", i + 0.99)
+				.put(CatalogServiceImpl.VERSION_FIELD, ++version);
+	}
+
+	// runs a store call on the event loop and waits for its result
+	private <T> T await(Consumer<Handler<AsyncResult<T>>> call) throws Exception {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		context.runOnContext(v -> call.accept(ar -> {
+			if (ar.succeeded()) {
+				result.complete(ar.result());
+			} else {
+				result.completeExceptionally(ar.cause());
+			}
+		}));
+		return result.get(30, TimeUnit.SECONDS);
+	}
+
+	// issues `concurrency` calls at once on the event loop and waits for all
+	private void burst(Consumer<Handler<AsyncResult<Object>>> call) throws InterruptedException, IOException {
+		CountDownLatch done = new CountDownLatch(concurrency);
+		boolean[] failed = new boolean[1];
+		context.runOnContext(v -> {
+			for (int i = 0; i < concurrency; i++) {
+				call.accept(ar -> {
+					failed[0] |= ar.failed();
+					done.countDown();
+				});
+			}
+		});
+		if (!done.await(30, TimeUnit.SECONDS) || failed[0]) {
+			throw new IOException("Store calls failed or timed out");
+		}
+	}
+
+	@Benchmark
+	public void findProduct() throws Exception {
+		burst(h -> store.findProduct(Integer.toString(100000 + (int) (System.nanoTime() % PRODUCTS)),
+				ar -> h.handle(ar.map(p -> p))));
+	}
+
+	@Benchmark
+	public void save() throws Exception {
+		burst(h -> store.save(document((int) (version % PRODUCTS)), ar -> h.handle(ar.map(v -> v))));
+	}
+}
@@ -0,0 +1,97 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redhat.coolstore.catalog.model.Product;
+
+/**
+ * Throughput of the in-memory product index under mixed reads and writes.
+ * <p>
+ * `mixed` runs `writePercent` writes among its operations; run it with
+ * {@code -t 1}, {@code -t 2}, {@code -t 4}... to see how it scales with the
+ * thread count. `readWhileWriting` runs three reader threads against one
+ * writer thread that updates prices continuously. One stripe stands for a
+ * single global structure.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StripedProductIndexBenchmark {
+
+	private static final int PRODUCTS = 10000;
+
+	@Param({ "1", "64" })
+	private int stripes;
+
+	@Param({ "0", "5", "50" })
+	private int writePercent;
+
+	private StripedProductIndex index;
+
+	private String[] itemIds;
+
+	private final AtomicLong version = new AtomicLong();
+
+	@Setup
+	public void setup() {
+		index = new StripedProductIndex(stripes);
+		itemIds = new String[PRODUCTS];
+		for (int i = 0; i < PRODUCTS; i++) {
+			itemIds[i] = Integer.toString(100000 + i);
+			index.put(product(itemIds[i], i + 0.99), version.incrementAndGet());
+		}
+	}
+
+	private Product product(String itemId, double price) {
+		Product product = new Product();
+		product.setItemId(itemId);
+		product.setName("Product " + itemId);
+		product.setPrice(price);
+		return product;
+	}
+
+	@Benchmark
+	public Object mixed() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		String itemId = itemIds[random.nextInt(PRODUCTS)];
+		if (random.nextInt(100) < writePercent) {
+			return index.put(product(itemId, random.nextDouble(100)), version.incrementAndGet());
+		}
+		return index.get(itemId);
+	}
+
+	@Benchmark
+	@Group("readWhileWriting")
+	@GroupThreads(3)
+	public Product read() {
+		return index.get(itemIds[ThreadLocalRandom.current().nextInt(PRODUCTS)]);
+	}
+
+	@Benchmark
+	@Group("readWhileWriting")
+	@GroupThreads(1)
+	public boolean write() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return index.put(product(itemIds[random.nextInt(PRODUCTS)], random.nextDouble(100)),
+				version.incrementAndGet());
+	}
+}
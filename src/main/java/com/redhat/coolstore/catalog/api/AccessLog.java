@@ -0,0 +1,331 @@
+package com.redhat.coolstore.catalog.api;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Access log file written by a background thread.
+ * <p>
+ * Records go into a ring buffer of `catalog.accesslog.buffer` slots allocated
+ * up front, one array per field: the event loops claim slots with a CAS on the
+ * tail sequence and publish them by writing the slot sequence, and the writer
+ * thread consumes them in order (multiple producers, single consumer). When the
+ * ring is full, records are dropped and counted, the event loops never wait.
+ * <p>
+ * The writer formats records straight into a direct buffer, and writes it to
+ * a {@link FileChannel} when it fills up or when the ring is drained. The file
+ * is rotated when it reaches `catalog.accesslog.max.size` bytes, keeping
+ * `catalog.accesslog.files` old files (`access.log.1` is the most recent).
+ * <p>
+ * Line format, latencies in microseconds, `-` when a stage did not happen:
+ *
+ * <pre>
+ * 2026-10-19T11:00:00.123Z GET /products 200 1234 total=1530 service=1210 write=45
+ * </pre>
+ */
+class AccessLog implements Shareable {
+
+	private static final int MAX_PATH = 512;
+
+	private static final HttpMethod[] METHODS = HttpMethod.values();
+
+	private static final byte[] TOTAL = " total=".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] SERVICE = " service=".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] WRITE = " write=".getBytes(StandardCharsets.US_ASCII);
+
+	private final int mask;
+
+	// the sequence of the record in each slot, published last
+	private final AtomicLongArray sequences;
+	private final long[] timestamps;
+	private final byte[] methods;
+	private final String[] paths;
+	private final short[] statuses;
+	private final long[] bytes;
+	private final long[] totals;
+	private final long[] services;
+	private final long[] writes;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	// written by the writer thread only
+	private volatile long head;
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final AtomicLong written = new AtomicLong();
+
+	private final Path file;
+
+	private final long maxSize;
+
+	private final int files;
+
+	private final long flushInterval;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+	private final Thread writer;
+
+	private volatile boolean running = true;
+
+	private FileChannel channel;
+
+	private long second = -1;
+
+	private byte[] secondPrefix;
+
+	private int references;
+
+	AccessLog(JsonObject config) {
+		int size = 1;
+		while (size < config.getInteger("catalog.accesslog.buffer", 8192)) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			// no record published yet
+			sequences.set(i, -1);
+		}
+		this.timestamps = new long[size];
+		this.methods = new byte[size];
+		this.paths = new String[size];
+		this.statuses = new short[size];
+		this.bytes = new long[size];
+		this.totals = new long[size];
+		this.services = new long[size];
+		this.writes = new long[size];
+		this.file = Paths.get(config.getString("catalog.accesslog.file", "access.log"));
+		this.maxSize = config.getLong("catalog.accesslog.max.size", 100L * 1024 * 1024);
+		this.files = config.getInteger("catalog.accesslog.files", 5);
+		this.flushInterval = config.getLong("catalog.accesslog.flush.interval", 100L);
+		this.writer = new Thread(this::run, "catalog-access-log");
+		this.writer.setDaemon(true);
+	}
+
+	/**
+	 * Adds a record, or drops it if the ring is full. Latencies in nanoseconds,
+	 * -1 when a stage did not happen.
+	 */
+	void append(HttpMethod method, String path, int status, long bodyBytes, long total, long service, long write) {
+		long sequence;
+		do {
+			sequence = tail.get();
+			if (sequence - head > mask) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!tail.compareAndSet(sequence, sequence + 1));
+		int slot = (int) sequence & mask;
+		timestamps[slot] = System.currentTimeMillis();
+		methods[slot] = (byte) method.ordinal();
+		paths[slot] = path;
+		statuses[slot] = (short) status;
+		bytes[slot] = bodyBytes;
+		totals[slot] = total;
+		services[slot] = service;
+		writes[slot] = write;
+		// the writes above happen before the consumer sees the sequence
+		sequences.lazySet(slot, sequence);
+	}
+
+	synchronized void retain() throws IOException {
+		if (references++ == 0) {
+			open();
+			writer.start();
+		}
+	}
+
+	/**
+	 * Stops the writer once the last user releases the log, after it has
+	 * written the records left in the ring.
+	 */
+	synchronized boolean release() {
+		if (--references > 0) {
+			return false;
+		}
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return true;
+	}
+
+	private void run() {
+		while (true) {
+			boolean stopping = !running;
+			try {
+				drain();
+			} catch (Throwable t) {
+				// the records not written yet are lost, the writer goes on
+				System.out.println("Failed to write the access log: " + t);
+				((Buffer) buffer).clear();
+				reopen();
+			}
+			if (stopping) {
+				break;
+			}
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushInterval));
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			System.out.println("Failed to close the access log: " + e.getMessage());
+		}
+	}
+
+	private void drain() throws IOException {
+		long next = head;
+		while (sequences.get((int) next & mask) == next) {
+			int slot = (int) next & mask;
+			if (buffer.remaining() < MAX_PATH + 256) {
+				flush();
+			}
+			int start = buffer.position();
+			try {
+				format(slot);
+			} catch (RuntimeException e) {
+				// skipped, so that it does not fail every drain
+				System.out.println("Failed to format an access log record: " + e);
+				((Buffer) buffer).position(start);
+				dropped.incrementAndGet();
+			}
+			// drop the reference, the path is not needed any more
+			paths[slot] = null;
+			next++;
+			head = next;
+			written.incrementAndGet();
+		}
+		flush();
+	}
+
+	private void format(int slot) {
+		long timestamp = timestamps[slot];
+		if (timestamp / 1000 != second) {
+			second = timestamp / 1000;
+			// "2026-10-19T11:00:00Z" without the Z
+			String iso = Instant.ofEpochSecond(second).toString();
+			secondPrefix = iso.substring(0, iso.length() - 1).getBytes(StandardCharsets.US_ASCII);
+		}
+		buffer.put(secondPrefix).put((byte) '.');
+		long millis = timestamp % 1000;
+		buffer.put((byte) ('0' + millis / 100)).put((byte) ('0' + millis / 10 % 10)).put((byte) ('0' + millis % 10));
+		buffer.put((byte) 'Z').put((byte) ' ');
+		putAscii(METHODS[methods[slot]].name(), 16);
+		buffer.put((byte) ' ');
+		putAscii(paths[slot], MAX_PATH);
+		buffer.put((byte) ' ');
+		putLong(statuses[slot]);
+		buffer.put((byte) ' ');
+		putLong(bytes[slot]);
+		putLatency(TOTAL, totals[slot]);
+		putLatency(SERVICE, services[slot]);
+		putLatency(WRITE, writes[slot]);
+		buffer.put((byte) '\n');
+	}
+
+	private void putAscii(String value, int max) {
+		int length = Math.min(value.length(), max);
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			buffer.put(c > ' ' && c < 127 ? (byte) c : (byte) '?');
+		}
+	}
+
+	private void putLatency(byte[] label, long nanos) {
+		buffer.put(label);
+		if (nanos < 0) {
+			buffer.put((byte) '-');
+		} else {
+			putLong(nanos / 1000);
+		}
+	}
+
+	private void putLong(long value) {
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		if (value >= 10) {
+			putLong(value / 10);
+		}
+		buffer.put((byte) ('0' + value % 10));
+	}
+
+	// Buffer casts: compiled on JDK 9+, the ByteBuffer overloads do not exist on
+	// Java 8
+	private void flush() throws IOException {
+		((Buffer) buffer).flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		((Buffer) buffer).clear();
+		if (channel.size() >= maxSize) {
+			rotate();
+		}
+	}
+
+	private void open() throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+	}
+
+	// after a failed rotation, the channel is closed
+	private void reopen() {
+		if (channel.isOpen()) {
+			return;
+		}
+		try {
+			open();
+		} catch (IOException e) {
+			System.out.println("Failed to reopen the access log: " + e.getMessage());
+		}
+	}
+
+	// access.log -> access.log.1 -> access.log.2 ... the oldest is deleted
+	private void rotate() throws IOException {
+		channel.close();
+		Files.deleteIfExists(rotated(files));
+		for (int i = files - 1; i >= 1; i--) {
+			if (Files.exists(rotated(i))) {
+				Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		if (files > 0) {
+			Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+		} else {
+			Files.delete(file);
+		}
+		open();
+	}
+
+	private Path rotated(int index) {
+		return file.resolveSibling(file.getFileName() + "." + index);
+	}
+
+	JsonObject toJson() {
+		return new JsonObject().put("buffer", mask + 1).put("pending", tail.get() - head).put("written", written.get())
+				.put("dropped", dropped.get());
+	}
+}
@@ -0,0 +1,98 @@
+package com.redhat.coolstore.catalog.api;
+
+import java.io.IOException;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Records every request in the {@link AccessLog} once its response is sent:
+ * method, path, status, body bytes, and the time spent in total, waiting for
+ * the catalog service, and writing the response body.
+ * <p>
+ * The log is shared by all the instances of the API verticle.
+ */
+class AccessLogHandler implements Handler<RoutingContext> {
+
+	private static final String TIMING = "accessLog.timing";
+
+	private static final String SHARED_KEY = "accessLog";
+
+	private final Vertx vertx;
+
+	private final AccessLog log;
+
+	AccessLogHandler(Vertx vertx, JsonObject config) throws IOException {
+		this.vertx = vertx;
+		LocalMap<String, AccessLog> shared = vertx.sharedData().getLocalMap("catalog-api");
+		AccessLog existing = shared.get(SHARED_KEY);
+		if (existing == null) {
+			// instances starting together may each create one, the others are
+			// dropped before they open the file or start their writer
+			AccessLog created = new AccessLog(config);
+			existing = shared.putIfAbsent(SHARED_KEY, created);
+			if (existing == null) {
+				existing = created;
+			}
+		}
+		this.log = existing;
+		log.retain();
+	}
+
+	@Override
+	public void handle(RoutingContext rc) {
+		Timing timing = new Timing(System.nanoTime());
+		rc.put(TIMING, timing);
+		rc.response().headersEndHandler(v -> timing.headersEnd = System.nanoTime());
+		rc.addBodyEndHandler(v -> {
+			long end = System.nanoTime();
+			log.append(rc.request().method(), rc.request().path(), rc.response().getStatusCode(),
+					rc.response().bytesWritten(), end - timing.start, timing.service,
+					timing.headersEnd > 0 ? end - timing.headersEnd : -1);
+		});
+		rc.next();
+	}
+
+	/**
+	 * Wraps a catalog service result handler to record the time the request
+	 * waited for the service.
+	 */
+	static <T> Handler<AsyncResult<T>> timed(RoutingContext rc, Handler<AsyncResult<T>> handler) {
+		Timing timing = rc.get(TIMING);
+		if (timing == null) {
+			return handler;
+		}
+		long start = System.nanoTime();
+		return ar -> {
+			timing.service = System.nanoTime() - start;
+			handler.handle(ar);
+		};
+	}
+
+	void close() {
+		if (log.release()) {
+			vertx.sharedData().getLocalMap("catalog-api").remove(SHARED_KEY);
+		}
+	}
+
+	JsonObject toJson() {
+		return log.toJson();
+	}
+
+	private static class Timing {
+
+		final long start;
+
+		long headersEnd;
+
+		long service = -1;
+
+		Timing(long start) {
+			this.start = start;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package com.redhat.coolstore.catalog.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Access frequency of the products, in constant memory, safe for use from
+ * several event loops.
+ * <p>
+ * Frequencies are counted in a Count-Min sketch: `depth` rows of `width`
+ * counters, each key incrementing one counter per row, and the smallest of its
+ * counters is an estimate that never undercounts. Counters are atomics, so an
+ * access costs one hash and `depth` atomic increments, without locks. The
+ * `capacity` keys with the highest estimates are kept as candidates for the
+ * most requested products; a key only displaces a candidate when its estimate
+ * beats the lowest one, which is rare once the hot keys are known.
+ * <p>
+ * Every `window` ms all the counts are halved, so that the estimates follow
+ * what is hot now rather than since the start.
+ */
+class AccessSketch implements Shareable {
+
+	private final AtomicLongArray counters;
+
+	private final int width;
+
+	private final int depth;
+
+	private final int capacity;
+
+	private final long window;
+
+	private final AtomicLong nextDecay;
+
+	private final AtomicLong decays = new AtomicLong();
+
+	private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+
+	// the lowest estimate among the candidates, once there are `capacity` of them
+	private volatile long floor;
+
+	AccessSketch(int width, int depth, int capacity, long window) {
+		this.counters = new AtomicLongArray(width * depth);
+		this.width = width;
+		this.depth = depth;
+		this.capacity = capacity;
+		this.window = window;
+		this.nextDecay = new AtomicLong(System.currentTimeMillis() + window);
+	}
+
+	AccessSketch(JsonObject config) {
+		this(config.getInteger("catalog.hotkeys.width", 4096), config.getInteger("catalog.hotkeys.depth", 4),
+				config.getInteger("catalog.hotkeys.capacity", 1000), config.getLong("catalog.hotkeys.window", 60000L));
+	}
+
+	/**
+	 * Counts one access to `key`.
+	 *
+	 * @return the estimated access count of `key`
+	 */
+	long add(String key) {
+		return add(key, 1);
+	}
+
+	long add(String key, long count) {
+		decayIfDue();
+		int h1 = hash(key);
+		int h2 = (h1 >>> 16) | 1;
+		long estimate = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			int index = row * width + ((h1 + row * h2) & Integer.MAX_VALUE) % width;
+			estimate = Math.min(estimate, counters.addAndGet(index, count));
+		}
+		offer(key, estimate);
+		return estimate;
+	}
+
+	private void offer(String key, long estimate) {
+		if (candidates.size() < capacity || candidates.containsKey(key)) {
+			candidates.put(key, estimate);
+			return;
+		}
+		if (estimate <= floor) {
+			return;
+		}
+		candidates.put(key, estimate);
+		trim();
+	}
+
+	// drops the lowest candidates down to `capacity`, concurrent trims may both
+	// drop one
+	private void trim() {
+		while (candidates.size() > capacity) {
+			Map.Entry<String, Long> lowest = lowest();
+			if (lowest == null) {
+				break;
+			}
+			candidates.remove(lowest.getKey(), lowest.getValue());
+		}
+		Map.Entry<String, Long> lowest = lowest();
+		floor = lowest != null ? lowest.getValue() : 0;
+	}
+
+	private Map.Entry<String, Long> lowest() {
+		Map.Entry<String, Long> lowest = null;
+		for (Map.Entry<String, Long> candidate : candidates.entrySet()) {
+			if (lowest == null || candidate.getValue() < lowest.getValue()) {
+				lowest = candidate;
+			}
+		}
+		return lowest;
+	}
+
+	// the thread that moves the deadline does the halving
+	private void decayIfDue() {
+		long due = nextDecay.get();
+		long now = System.currentTimeMillis();
+		if (now < due || !nextDecay.compareAndSet(due, now + window)) {
+			return;
+		}
+		for (int i = 0; i < counters.length(); i++) {
+			long value;
+			do {
+				value = counters.get(i);
+			} while (value != 0 && !counters.compareAndSet(i, value, value >>> 1));
+		}
+		candidates.replaceAll((key, estimate) -> estimate >>> 1);
+		candidates.values().removeIf(estimate -> estimate == 0);
+		trim();
+		decays.incrementAndGet();
+	}
+
+	/**
+	 * The `n` keys with the highest estimates, most requested first.
+	 */
+	List<String> top(int n) {
+		return sorted(n).stream().map(Map.Entry::getKey).collect(Collectors.toList());
+	}
+
+	private List<Map.Entry<String, Long>> sorted(int n) {
+		List<Map.Entry<String, Long>> sorted = new ArrayList<>(candidates.entrySet());
+		sorted.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+		return sorted.subList(0, Math.min(n, sorted.size()));
+	}
+
+	/**
+	 * The `n` keys with the highest estimates, as {itemId, count} objects.
+	 */
+	JsonArray toJson(int n) {
+		JsonArray array = new JsonArray();
+		sorted(n).forEach(entry -> array.add(new JsonObject().put("itemId", entry.getKey()).put("count", entry.getValue())));
+		return array;
+	}
+
+	JsonObject toJson() {
+		return new JsonObject().put("width", width).put("depth", depth).put("capacity", capacity)
+				.put("candidates", candidates.size()).put("window", window).put("decays", decays.get());
+	}
+
+	// FNV-1a
+	private static int hash(String key) {
+		int h = 0x811c9dc5;
+		for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			h ^= b;
+			h *= 0x01000193;
+		}
+		return h;
+	}
+}
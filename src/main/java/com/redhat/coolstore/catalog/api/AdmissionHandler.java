@@ -0,0 +1,59 @@
+package com.redhat.coolstore.catalog.api;
+
+import com.redhat.coolstore.catalog.verticle.service.ConcurrencyLimiter;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Rejects requests with 503 and a `Retry-After` header when the number of
+ * requests in flight on this verticle reaches the adaptive limit, before they
+ * are sent to the catalog service. Server errors and slow responses shrink the
+ * limit (see {@link ConcurrencyLimiter}).
+ */
+class AdmissionHandler implements Handler<RoutingContext> {
+
+	private final ConcurrencyLimiter limiter;
+
+	private String retryAfter;
+
+	private long rejected;
+
+	AdmissionHandler(JsonObject config) {
+		this.limiter = ConcurrencyLimiter.create(config, "catalog.admission", "http");
+		this.retryAfter = Integer.toString(config.getInteger("catalog.admission.retry.after", 1));
+	}
+
+	/**
+	 * Applies the limits of a configuration change.
+	 */
+	void configure(JsonObject config) {
+		limiter.configure(config, "catalog.admission", "http");
+		retryAfter = Integer.toString(config.getInteger("catalog.admission.retry.after", 1));
+	}
+
+	@Override
+	public void handle(RoutingContext rc) {
+		if (!limiter.tryAcquire()) {
+			rejected++;
+			rc.response().setStatusCode(503).putHeader("Retry-After", retryAfter).end();
+			return;
+		}
+		long start = System.nanoTime();
+		boolean[] released = new boolean[1];
+		Handler<Void> release = v -> {
+			if (!released[0]) {
+				released[0] = true;
+				limiter.release(System.nanoTime() - start, rc.response().getStatusCode() >= 500);
+			}
+		};
+		rc.addBodyEndHandler(release);
+		rc.response().closeHandler(release);
+		rc.next();
+	}
+
+	JsonObject toJson() {
+		return limiter.toJson().put("rejected", rejected);
+	}
+}
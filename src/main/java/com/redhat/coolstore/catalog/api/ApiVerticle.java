@@ -3,12 +3,22 @@ package com.redhat.coolstore.catalog.api;
 import java.util.List;
 
 import com.redhat.coolstore.catalog.model.Product;
+import com.redhat.coolstore.catalog.model.ProductCodec;
+import com.redhat.coolstore.catalog.verticle.ConfigChanges;
+import com.redhat.coolstore.catalog.verticle.StartupTimer;
 import com.redhat.coolstore.catalog.verticle.service.CatalogService;
 
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
 import io.vertx.ext.healthchecks.HealthCheckHandler;
 import io.vertx.ext.healthchecks.Status;
 import io.vertx.ext.web.Router;
@@ -17,8 +27,59 @@ import io.vertx.ext.web.handler.BodyHandler;
 
 public class ApiVerticle extends AbstractVerticle {
 
+	private static final int DEFAULT_CHANGES_LIMIT = 100;
+	private static final int MAX_CHANGES_LIMIT = 1000;
+	private static final int DEFAULT_PRICE_LIMIT = 100;
+	private static final int MAX_PRICE_LIMIT = 1000;
+
 	private CatalogService catalogService;
 
+	private ProductEventStream eventStream;
+
+	private boolean writeBehind;
+
+	private AdmissionHandler admission;
+
+	// null unless rate limiting is enabled
+	private RateLimitHandler rateLimit;
+
+	private String retryAfter;
+
+	private LastKnownGood lastKnownGood;
+
+	private AccessSketch sketch;
+
+	private int hotKeysLimit;
+
+	// null unless warm-up is enabled, shared by the instances
+	private WarmUp warmUp;
+
+	// this instance runs the warm-up
+	private boolean warming;
+
+	private long persistTimer = -1;
+
+	// the encoded product list prebuilt during warm-up, until a product changes
+	private Buffer prebuiltJson;
+	private Buffer prebuiltCbor;
+	private long prebuiltExpires;
+	private long prebuiltTtl;
+
+	private MessageConsumer<Product> changeConsumer;
+
+	private MessageConsumer<JsonObject> configConsumer;
+
+	// requests in flight, waited for on stop
+	private int inFlight;
+	private boolean draining;
+	private long drainTimeout;
+
+	// null unless the access log is enabled
+	private AccessLogHandler accessLog;
+
+	// null unless the export files are enabled
+	private ExportFiles exports;
+
 	public ApiVerticle(CatalogService catalogService) {
 		this.catalogService = catalogService;
 	}
@@ -26,7 +87,54 @@ public class ApiVerticle extends AbstractVerticle {
 	@Override
 	public void start(Future<Void> startFuture) throws Exception {
 
+		writeBehind = config().getBoolean("catalog.writebehind.enabled", false);
+		retryAfter = Integer.toString(config().getInteger("catalog.admission.retry.after", 1));
+		lastKnownGood = new LastKnownGood(config());
+		ProductCodec.register(vertx.eventBus());
+		eventStream = new ProductEventStream(vertx, config());
+		eventStream.start();
+
+		// Access frequencies, shared by the instances of this verticle
+		AccessSketch created = new AccessSketch(config());
+		AccessSketch existing = vertx.sharedData().<String, AccessSketch>getLocalMap("catalog-api").putIfAbsent("sketch",
+				created);
+		sketch = existing != null ? existing : created;
+		hotKeysLimit = config().getInteger("catalog.hotkeys.top", 20);
+
+		// Warm-up: readiness waits until the most requested products have been read
+		prebuiltTtl = config().getLong("catalog.warmup.products.ttl", 10000L);
+		drainTimeout = config().getLong("catalog.http.drain.timeout", 10000L);
+		changeConsumer = vertx.eventBus().consumer(CatalogService.CHANGES_ADDRESS, m -> dropPrebuilt());
+		if (config().getBoolean("catalog.warmup.enabled", false)) {
+			LocalMap<String, WarmUp> shared = vertx.sharedData().getLocalMap("catalog-api");
+			warmUp = shared.get("warmup");
+			if (warmUp == null) {
+				warmUp = new WarmUp(vertx, config(), catalogService, sketch);
+				WarmUp raced = shared.putIfAbsent("warmup", warmUp);
+				if (raced != null) {
+					warmUp = raced;
+				}
+			}
+			// the first instance runs the warm-up, the others are ready once it is
+			// over; the products it reads only fill the stale data and the prebuilt
+			// list of that instance
+			warming = warmUp.retain();
+			if (warming) {
+				warmUp.start(product -> lastKnownGood.putProduct(product), products -> prebuild(products),
+						v -> StartupTimer.mark("ready"));
+			}
+			persistTimer = vertx.setPeriodic(warmUp.persistInterval(), tid -> warmUp.persistIfDue());
+		} else {
+			StartupTimer.mark("ready");
+		}
+
 		Router router = Router.router(vertx);
+		router.route().handler(rc -> track(rc));
+		// Access log, written to a file by a background thread
+		if (config().getBoolean("catalog.accesslog.enabled", false)) {
+			accessLog = new AccessLogHandler(vertx, config());
+			router.route().handler(accessLog);
+		}
 		// ----
 		// Add routes to the Router
 		// * A route for HTTP GET requests that matches the "/products" path.
@@ -37,14 +145,68 @@ public class ApiVerticle extends AbstractVerticle {
 		// * A route for HTTP POST requests that matches the "/product" path.
 		// The handler for this route is implemented by the `addProduct()` method.
 		// ----
-		router.get("/products").produces("application/json").handler(rc -> getProducts(rc));
-		router.get("/product/:itemId").produces("application/json").handler(rc -> getProduct(rc));
+		// Rate limiting: each client gets a token bucket, and a full listing takes
+		// more tokens than a single product.
+		if (config().getBoolean("catalog.ratelimit.enabled", false)) {
+			rateLimit = new RateLimitHandler(vertx, config());
+			long productCost = config().getLong("catalog.ratelimit.cost.product", 1L);
+			long changesCost = config().getLong("catalog.ratelimit.cost.changes", 5L);
+			long productsCost = config().getLong("catalog.ratelimit.cost.products", 50L);
+			router.route("/products").handler(rateLimit.cost(productsCost));
+			router.route("/products/export.*").handler(rateLimit.cost(productsCost));
+			router.route("/products/changes").handler(rateLimit.cost(changesCost));
+			router.route("/products/events").handler(rateLimit.cost(changesCost));
+			router.route("/product").handler(rateLimit.cost(productCost));
+			router.route("/product/:itemId").handler(rateLimit.cost(productCost));
+		}
+
+		// Admission control: product requests beyond the adaptive in-flight limit are
+		// rejected with 503 before they reach the catalog service.
+		admission = new AdmissionHandler(config());
+		router.route("/products").handler(admission);
+		router.route("/products/changes").handler(admission);
+		router.route("/product").handler(admission);
+		router.route("/product/:itemId").handler(admission);
+
+		// Live configuration: tuning settings changed while running
+		configConsumer = vertx.eventBus().consumer(ConfigChanges.ADDRESS, message -> configure(message.body()));
+
+		// Product payloads are served as JSON by default, or as CBOR when the client
+		// asks for it with an "Accept: application/cbor" header.
+		router.get("/products").produces("application/json").produces(ProductCodec.CONTENT_TYPE)
+				.handler(rc -> getProducts(rc));
+		router.get("/product/:itemId").produces("application/json").produces(ProductCodec.CONTENT_TYPE)
+				.handler(rc -> getProduct(rc));
+		router.delete("/product/:itemId").handler(rc -> deleteProduct(rc));
+
+		// Incremental sync: products changed since a continuation token
+		router.get("/products/changes").produces("application/json").handler(rc -> getProductChanges(rc));
+		// Push of product changes as Server-Sent Events
+		router.get("/products/events").handler(rc -> eventStream.subscribe(rc));
+
+		// Export files of the whole catalog, sent from disk
+		if (config().getBoolean("catalog.export.enabled", false)) {
+			exports = new ExportFiles(vertx, config());
+			exports.start();
+			router.get("/products/export").produces("application/json").handler(rc -> exports.getManifest(rc));
+			router.get("/products/export.ndjson").handler(rc -> exports.getFile(rc, "ndjson"));
+			router.get("/products/export.csv").handler(rc -> exports.getFile(rc, "csv"));
+		}
 
 		router.route("/product").handler(BodyHandler.create());
 		router.post("/product").produces("application/json").handler(rc -> addProduct(rc));
 
+		router.get("/admin/stats").produces("application/json").handler(rc -> getStats(rc));
+		router.get("/admin/hotkeys").produces("application/json").handler(rc -> getHotKeys(rc));
+
 		// Health Checks
-		router.get("/health/readiness").handler(rc -> rc.response().end("OK"));
+		router.get("/health/readiness").handler(rc -> {
+			if (warmUp == null || warmUp.isDone()) {
+				rc.response().end("OK");
+			} else {
+				rc.response().setStatusCode(503).end("Warming up");
+			}
+		});
 		HealthCheckHandler healthCheckHandler = HealthCheckHandler.create(vertx).register("health", f -> health(f));
 		router.get("/health/liveness").handler(healthCheckHandler);
 
@@ -69,6 +231,104 @@ public class ApiVerticle extends AbstractVerticle {
 
 	}
 
+	// Applies the tuning settings of a configuration change
+	private void configure(JsonObject config) {
+		admission.configure(config);
+		if (rateLimit != null) {
+			rateLimit.configure(config);
+		}
+		retryAfter = Integer.toString(config.getInteger("catalog.admission.retry.after", 1));
+		lastKnownGood.configure(config);
+		hotKeysLimit = config.getInteger("catalog.hotkeys.top", 20);
+		prebuiltTtl = config.getLong("catalog.warmup.products.ttl", 10000L);
+		drainTimeout = config.getLong("catalog.http.drain.timeout", 10000L);
+	}
+
+	// Counts the requests in flight. While draining, the server still hands new
+	// requests to this instance: they are turned away without being counted, so
+	// that their clients retry on a new connection, to another instance.
+	private void track(RoutingContext rc) {
+		if (draining) {
+			rc.response().setStatusCode(503).putHeader("Connection", "close").putHeader("Retry-After", retryAfter)
+					.end();
+			return;
+		}
+		if (!StartupTimer.reached("request")) {
+			rc.addBodyEndHandler(v -> StartupTimer.mark("request"));
+		}
+		// event streams last until the server closes, their clients reconnect
+		if (!rc.request().path().equals("/products/events")) {
+			inFlight++;
+			rc.addBodyEndHandler(v -> inFlight--);
+		}
+		rc.next();
+	}
+
+	/**
+	 * Stops once the requests in flight are answered, or after
+	 * `catalog.http.drain.timeout` ms, so that scaling down does not drop them.
+	 * Requests arriving meanwhile get 503 with `Connection: close`. The HTTP
+	 * server is closed after this.
+	 */
+	@Override
+	public void stop(Future<Void> stopFuture) throws Exception {
+		draining = true;
+		if (configConsumer != null) {
+			configConsumer.unregister();
+		}
+		if (eventStream != null) {
+			eventStream.stop();
+		}
+		if (changeConsumer != null) {
+			changeConsumer.unregister();
+		}
+		if (exports != null) {
+			exports.stop();
+		}
+		Future<Void> drained = Future.future();
+		drain(System.currentTimeMillis() + drainTimeout, drained);
+		drained.compose(v -> {
+			Future<Void> warmUpStopped = Future.future();
+			if (warmUp == null) {
+				warmUpStopped.complete();
+				return warmUpStopped;
+			}
+			vertx.cancelTimer(persistTimer);
+			if (warming) {
+				warmUp.cancel();
+			}
+			if (warmUp.release()) {
+				vertx.sharedData().getLocalMap("catalog-api").remove("warmup");
+				// keep the access frequencies for the next start
+				warmUp.persist(saved -> warmUpStopped.complete());
+			} else {
+				warmUpStopped.complete();
+			}
+			return warmUpStopped;
+		}).setHandler(v -> {
+			if (accessLog == null) {
+				stopFuture.complete();
+				return;
+			}
+			// waits for the records left to be written
+			vertx.<Void>executeBlocking(f -> {
+				accessLog.close();
+				f.complete();
+			}, ar -> stopFuture.complete());
+		});
+	}
+
+	private void drain(long deadline, Future<Void> drained) {
+		if (inFlight <= 0) {
+			drained.complete();
+		} else if (System.currentTimeMillis() >= deadline) {
+			System.out.println("Stopping with " + inFlight + " requests in flight");
+			drained.complete();
+		} else {
+			vertx.setTimer(10, tid -> drain(deadline, drained));
+		}
+	}
+
 	private void getProducts(RoutingContext rc) {
 		// ----
 		// Needs to be implemented
@@ -81,17 +341,106 @@ public class ApiVerticle extends AbstractVerticle {
 		// * Write the `JsonArray` to the `HttpServerResponse`, and end the response.
 		// * If the `getProducts()` method returns a failure, fail the `RoutingContext`.
 		// ----
-		catalogService.getProducts(h -> {
+		if (isPriceQuery(rc)) {
+			getProductsByPrice(rc);
+			return;
+		}
+		if (prebuiltJson != null && System.currentTimeMillis() < prebuiltExpires) {
+			boolean cbor = acceptsCbor(rc);
+			rc.response().setStatusCode(200)
+					.putHeader("content-type", cbor ? ProductCodec.CONTENT_TYPE : "application/json")
+					.end(cbor ? prebuiltCbor : prebuiltJson);
+			return;
+		}
+		catalogService.getProducts(AccessLogHandler.timed(rc, h -> {
 			if (h.succeeded()) {
-				List<Product> products = h.result();
-				JsonArray array = new JsonArray();
-				products.forEach(p -> array.add(p.toJson()));
-				rc.response().setStatusCode(200).putHeader("content-type", "application/json").end(array.encode());
+				lastKnownGood.putProducts(h.result());
+				writeProducts(rc, h.result());
 			} else {
-				rc.response().setStatusCode(500).end();
-				rc.fail(h.cause());
+				LastKnownGood.Stale<List<Product>> stale = isServerError(h.cause()) ? lastKnownGood.getProducts() : null;
+				if (stale != null) {
+					markStale(rc, stale);
+					writeProducts(rc, stale.value);
+				} else {
+					handleFailure(rc, h.cause());
+				}
 			}
-		});
+		}));
+	}
+
+	private boolean isPriceQuery(RoutingContext rc) {
+		MultiMap params = rc.request().params();
+		return params.contains("sort") || params.contains("minPrice") || params.contains("maxPrice")
+				|| params.contains("limit");
+	}
+
+	// PATH /products?sort=price|-price&minPrice=<p>&maxPrice=<p>&limit=<n>
+	private void getProductsByPrice(RoutingContext rc) {
+		String sort = rc.request().getParam("sort");
+		double minPrice;
+		double maxPrice;
+		int limit;
+		try {
+			String minParam = rc.request().getParam("minPrice");
+			String maxParam = rc.request().getParam("maxPrice");
+			String limitParam = rc.request().getParam("limit");
+			minPrice = minParam == null ? -Double.MAX_VALUE : Double.parseDouble(minParam);
+			maxPrice = maxParam == null ? Double.MAX_VALUE : Double.parseDouble(maxParam);
+			limit = limitParam == null ? DEFAULT_PRICE_LIMIT : Integer.parseInt(limitParam);
+		} catch (NumberFormatException e) {
+			rc.response().setStatusCode(400).end("minPrice, maxPrice and limit must be numbers");
+			return;
+		}
+		// NaN compares false with every price, and parses without an exception
+		if (!Double.isFinite(minPrice) || !Double.isFinite(maxPrice)) {
+			rc.response().setStatusCode(400).end("minPrice and maxPrice must be finite numbers");
+			return;
+		}
+		if (sort != null && !sort.equals("price") && !sort.equals("-price")) {
+			rc.response().setStatusCode(400).end("sort must be price or -price");
+			return;
+		}
+		if (limit <= 0 || limit > MAX_PRICE_LIMIT || minPrice > maxPrice) {
+			rc.response().setStatusCode(400)
+					.end("limit must be between 1 and " + MAX_PRICE_LIMIT + ", minPrice at most maxPrice");
+			return;
+		}
+
+		boolean descending = "-price".equals(sort);
+		catalogService.getProductsByPrice(minPrice, maxPrice, limit, descending, AccessLogHandler.timed(rc, h -> {
+			if (h.succeeded()) {
+				writeProducts(rc, h.result());
+			} else {
+				handleFailure(rc, h.cause());
+			}
+		}));
+	}
+
+	private void writeProducts(RoutingContext rc, List<Product> products) {
+		if (acceptsCbor(rc)) {
+			rc.response().setStatusCode(200).putHeader("content-type", ProductCodec.CONTENT_TYPE)
+					.end(ProductCodec.encode(products));
+			return;
+		}
+		rc.response().setStatusCode(200).putHeader("content-type", "application/json").end(encodeJson(products));
+	}
+
+	private Buffer encodeJson(List<Product> products) {
+		JsonArray array = new JsonArray();
+		products.forEach(p -> array.add(p.toJson()));
+		return array.toBuffer();
+	}
+
+	private void prebuild(List<Product> products) {
+		lastKnownGood.putProducts(products);
+		prebuiltJson = encodeJson(products);
+		prebuiltCbor = ProductCodec.encode(products);
+		prebuiltExpires = System.currentTimeMillis() + prebuiltTtl;
+	}
+
+	private void dropPrebuilt() {
+		prebuiltJson = null;
+		prebuiltCbor = null;
 	}
 
 	// PATH /product/:itemId
@@ -109,20 +458,37 @@ public class ApiVerticle extends AbstractVerticle {
 		// * If the `getProduct()` method returns a failure, fail the `RoutingContext`.
 		// ----
 		String itemId = rc.request().getParam("itemId");
-		catalogService.getProduct(itemId, h -> {
+		sketch.add(itemId);
+		catalogService.getProduct(itemId, AccessLogHandler.timed(rc, h -> {
 			if (h.succeeded()) {
 				Product product = h.result();
 				if (product == null) {
+					lastKnownGood.removeProduct(itemId);
 					rc.response().setStatusCode(404).end();
 				} else {
-					rc.response().setStatusCode(200).putHeader("content-type", "application/json")
-							.end(product.toJson().encode());
+					lastKnownGood.putProduct(product);
+					writeProduct(rc, product);
 				}
 			} else {
-				rc.response().setStatusCode(500).end();
-				rc.fail(h.cause());
+				LastKnownGood.Stale<Product> stale = isServerError(h.cause()) ? lastKnownGood.getProduct(itemId) : null;
+				if (stale != null) {
+					markStale(rc, stale);
+					writeProduct(rc, stale.value);
+				} else {
+					handleFailure(rc, h.cause());
+				}
 			}
-		});
+		}));
+	}
+
+	private void writeProduct(RoutingContext rc, Product product) {
+		if (acceptsCbor(rc)) {
+			rc.response().setStatusCode(200).putHeader("content-type", ProductCodec.CONTENT_TYPE)
+					.end(ProductCodec.encode(product));
+		} else {
+			rc.response().setStatusCode(200).putHeader("content-type", "application/json")
+					.end(product.toJson().encode());
+		}
 	}
 
 	private void addProduct(RoutingContext rc) {
@@ -137,24 +503,153 @@ public class ApiVerticle extends AbstractVerticle {
 		// `HttpServerResponse`, and end the response.
 		// * If the call fails, fail the `RoutingContext`.
 		// ----
-		JsonObject body = rc.getBodyAsJson();
-		if (body == null) {
+		Product product;
+		String contentType = rc.request().getHeader("content-type");
+		try {
+			if (contentType != null && contentType.startsWith(ProductCodec.CONTENT_TYPE)) {
+				product = rc.getBody().length() == 0 ? null : ProductCodec.decodeProduct(rc.getBody());
+			} else {
+				JsonObject body = rc.getBodyAsJson();
+				product = body == null ? null : new Product(body);
+			}
+		} catch (DecodeException e) {
+			rc.response().setStatusCode(400).end(e.getMessage());
+			return;
+		}
+		if (product == null) {
 			rc.response().setStatusCode(500).end();
 			rc.fail(new IllegalArgumentException("The payload is empty"));
 			return;
 		}
 
-		Product product = new Product(body);
-		catalogService.addProduct(product, h -> {
+		catalogService.addProduct(product, AccessLogHandler.timed(rc, h -> {
 			if (h.succeeded()) {
-				rc.response().setStatusCode(201).end();
+				// in write-behind mode the product is journaled but not yet in the database
+				rc.response().setStatusCode(writeBehind ? 202 : 201).end();
 			} else {
-				rc.response().setStatusCode(500).end();
-				rc.fail(h.cause());
+				handleFailure(rc, h.cause());
 			}
+		}));
+	}
+
+	private void deleteProduct(RoutingContext rc) {
+		String itemId = rc.request().getParam("itemId");
+		catalogService.deleteProduct(itemId, AccessLogHandler.timed(rc, h -> {
+			if (h.succeeded()) {
+				lastKnownGood.removeProduct(itemId);
+				rc.response().setStatusCode(204).end();
+			} else {
+				handleFailure(rc, h.cause());
+			}
+		}));
+	}
+
+	// PATH /products/changes?since=<token>&limit=<n>
+	private void getProductChanges(RoutingContext rc) {
+		String since = rc.request().getParam("since");
+		int limit;
+		try {
+			String limitParam = rc.request().getParam("limit");
+			limit = limitParam == null ? DEFAULT_CHANGES_LIMIT : Integer.parseInt(limitParam);
+		} catch (NumberFormatException e) {
+			limit = -1;
+		}
+		if (limit <= 0 || limit > MAX_CHANGES_LIMIT) {
+			rc.response().setStatusCode(400).end("limit must be between 1 and " + MAX_CHANGES_LIMIT);
+			return;
+		}
+
+		catalogService.getProductChanges(since, limit, AccessLogHandler.timed(rc, h -> {
+			if (h.succeeded()) {
+				rc.response().setStatusCode(200).putHeader("content-type", "application/json").end(h.result().encode());
+			} else {
+				handleFailure(rc, h.cause());
+			}
+		}));
+	}
+
+	private void getStats(RoutingContext rc) {
+		JsonObject stats = new JsonObject().put("api",
+				new JsonObject().put("admission", admission.toJson()).put("stale", lastKnownGood.toJson())
+						.put("hotkeys", sketch.toJson()).put("startup", StartupTimer.toJson()))
+				.put("config", ConfigChanges.toJson());
+		if (rateLimit != null) {
+			stats.getJsonObject("api").put("ratelimit", rateLimit.toJson());
+		}
+		if (accessLog != null) {
+			stats.getJsonObject("api").put("accesslog", accessLog.toJson());
+		}
+		if (exports != null) {
+			stats.getJsonObject("api").put("export", exports.toJson());
+		}
+		if (warmUp != null) {
+			stats.getJsonObject("api").put("warmup", warmUp.toJson());
+		}
+		catalogService.getStats(h -> {
+			if (h.succeeded()) {
+				stats.put("service", h.result());
+			} else {
+				stats.put("service", new JsonObject().put("error", h.cause().getMessage()));
+			}
+			rc.response().setStatusCode(200).putHeader("content-type", "application/json").end(stats.encode());
 		});
 	}
 
+	// PATH /admin/hotkeys?limit=<n>
+	private void getHotKeys(RoutingContext rc) {
+		int limit;
+		try {
+			String limitParam = rc.request().getParam("limit");
+			limit = limitParam == null ? hotKeysLimit : Integer.parseInt(limitParam);
+		} catch (NumberFormatException e) {
+			limit = -1;
+		}
+		if (limit <= 0) {
+			rc.response().setStatusCode(400).end("limit must be positive");
+			return;
+		}
+		JsonObject hotKeys = sketch.toJson().put("keys", sketch.toJson(limit));
+		rc.response().setStatusCode(200).putHeader("content-type", "application/json").end(hotKeys.encode());
+	}
+
+	// Maps the failure of a catalog service call to a HTTP response
+	private void handleFailure(RoutingContext rc, Throwable cause) {
+		if (cause instanceof ReplyException) {
+			ReplyException e = (ReplyException) cause;
+			if (e.failureType() == ReplyFailure.TIMEOUT) {
+				rc.response().setStatusCode(504).end();
+				return;
+			}
+			if (e.failureCode() == 400) {
+				rc.response().setStatusCode(400).end(e.getMessage());
+				return;
+			}
+			if (e.failureCode() == 503) {
+				// the service is shedding load
+				rc.response().setStatusCode(503).putHeader("Retry-After", retryAfter).end();
+				return;
+			}
+		}
+		rc.response().setStatusCode(500).end();
+		rc.fail(cause);
+	}
+
+	// Failures for which a stale response beats no response: everything but a bad
+	// request
+	private boolean isServerError(Throwable cause) {
+		return !(cause instanceof ReplyException) || ((ReplyException) cause).failureCode() != 400;
+	}
+
+	// RFC 7234: the response comes from the last known good data, not the database
+	private void markStale(RoutingContext rc, LastKnownGood.Stale<?> stale) {
+		rc.response().putHeader("Warning", "110 - \"Response is Stale\"").putHeader("Age",
+				Long.toString(stale.age()));
+	}
+
+	private boolean acceptsCbor(RoutingContext rc) {
+		return ProductCodec.CONTENT_TYPE.equals(rc.getAcceptableContentType());
+	}
+
 	private void health(Future<Status> future) {
 		catalogService.ping(ar -> {
 			if (ar.succeeded()) {
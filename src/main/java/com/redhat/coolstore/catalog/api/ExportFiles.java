@@ -0,0 +1,188 @@
+package com.redhat.coolstore.catalog.api;
+
+import java.nio.file.Paths;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.redhat.coolstore.catalog.verticle.service.CatalogService;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Serves the export files written by the catalog service (see
+ * `catalog.export.*`) with {@link HttpServerResponse#sendFile}, so that the
+ * kernel copies them to the socket without going through the event loop.
+ * <p>
+ * The files served are those of the last manifest published on
+ * {@link CatalogService#EXPORTS_ADDRESS}, or read from `catalog.export.dir` on
+ * start. Responses carry the ETag of the file: `If-None-Match` gets 304, and a
+ * single byte range gets 206. Clients that accept gzip get the gzip copy.
+ */
+class ExportFiles {
+
+	static final String MANIFEST = "export.json";
+
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+	private final Vertx vertx;
+
+	private final String dir;
+
+	// null until the first export
+	private JsonObject manifest;
+
+	private MessageConsumer<JsonObject> consumer;
+
+	ExportFiles(Vertx vertx, JsonObject config) {
+		this.vertx = vertx;
+		this.dir = config.getString("catalog.export.dir", "exports");
+	}
+
+	void start() {
+		consumer = vertx.eventBus().consumer(CatalogService.EXPORTS_ADDRESS, message -> manifest = message.body());
+		vertx.fileSystem().readFile(Paths.get(dir, MANIFEST).toString(), ar -> {
+			// a manifest received meanwhile is newer
+			if (ar.succeeded() && manifest == null) {
+				try {
+					manifest = new JsonObject(ar.result());
+				} catch (RuntimeException e) {
+					System.out.println("Ignoring unreadable export manifest in " + dir + ": " + e.getMessage());
+				}
+			}
+		});
+	}
+
+	void stop() {
+		if (consumer != null) {
+			consumer.unregister();
+		}
+	}
+
+	// PATH /products/export
+	void getManifest(RoutingContext rc) {
+		if (manifest == null) {
+			rc.response().setStatusCode(404).end("No export yet");
+			return;
+		}
+		rc.response().setStatusCode(200).putHeader("content-type", "application/json").end(manifest.encode());
+	}
+
+	// PATH /products/export.<format>
+	void getFile(RoutingContext rc, String format) {
+		JsonObject file = manifest == null ? null : manifest.getJsonObject("files", new JsonObject()).getJsonObject(format);
+		if (file == null) {
+			rc.response().setStatusCode(404).end("No " + format + " export yet");
+			return;
+		}
+		HttpServerResponse response = rc.response();
+		response.putHeader("Vary", "Accept-Encoding");
+		JsonObject variant = file;
+		if (file.containsKey("gzip") && acceptsGzip(rc.request().getHeader("Accept-Encoding"))) {
+			variant = file.getJsonObject("gzip");
+			response.putHeader("Content-Encoding", "gzip");
+		}
+		String etag = variant.getString("etag");
+		long size = variant.getLong("size");
+		response.putHeader("ETag", etag).putHeader("Accept-Ranges", "bytes").putHeader("content-type",
+				file.getString("contentType"));
+		if (matches(rc.request().getHeader("If-None-Match"), etag)) {
+			response.setStatusCode(304).end();
+			return;
+		}
+
+		long offset = 0;
+		long length = size;
+		String range = rc.request().getHeader("Range");
+		String ifRange = rc.request().getHeader("If-Range");
+		// a range of another version of the file would be garbage, send all of it
+		if (range != null && (ifRange == null || ifRange.equals(etag))) {
+			long[] bounds = parseRange(range, size);
+			if (bounds != null && bounds[0] >= size) {
+				response.setStatusCode(416).putHeader("Content-Range", "bytes */" + size).end();
+				return;
+			}
+			if (bounds != null) {
+				offset = bounds[0];
+				length = bounds[1] - bounds[0] + 1;
+				response.setStatusCode(206).putHeader("Content-Range",
+						"bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+			}
+		}
+		String path = Paths.get(dir, variant.getString("file")).toString();
+		response.sendFile(path, offset, length, ar -> {
+			if (ar.failed()) {
+				System.out.println("Failed to send export file " + path + ": " + ar.cause().getMessage());
+				if (!response.headWritten()) {
+					// pruned by a newer export
+					response.headers().remove("Content-Range").remove("Content-Encoding");
+					response.setStatusCode(404).end();
+				}
+			}
+		});
+	}
+
+	/**
+	 * The first and last byte of a single `bytes` range, `first >= size` if it
+	 * cannot be satisfied, or null to send the whole file: multiple or invalid
+	 * ranges.
+	 */
+	static long[] parseRange(String range, long size) {
+		Matcher matcher = RANGE.matcher(range.trim());
+		if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+			return null;
+		}
+		try {
+			if (matcher.group(1).isEmpty()) {
+				// the last N bytes
+				long suffix = Long.parseLong(matcher.group(2));
+				return suffix == 0 ? new long[] { size, size } : new long[] { Math.max(0, size - suffix), size - 1 };
+			}
+			long first = Long.parseLong(matcher.group(1));
+			long last = matcher.group(2).isEmpty() ? Long.MAX_VALUE : Long.parseLong(matcher.group(2));
+			if (last < first) {
+				return null;
+			}
+			return new long[] { first, Math.min(last, size - 1) };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private static boolean acceptsGzip(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.trim().split(";");
+			if (parts[0].trim().equalsIgnoreCase("gzip")) {
+				return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+			}
+		}
+		return false;
+	}
+
+	private static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	JsonObject toJson() {
+		if (manifest == null) {
+			return new JsonObject();
+		}
+		return new JsonObject().put("generation", manifest.getLong("generation")).put("products",
+				manifest.getInteger("products"));
+	}
+}
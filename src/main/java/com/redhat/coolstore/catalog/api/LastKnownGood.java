@@ -0,0 +1,116 @@
+package com.redhat.coolstore.catalog.api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.redhat.coolstore.catalog.model.Product;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * The last product data successfully read from the catalog service. When the
+ * service fails (database circuit open, bus timeout...), reads are answered
+ * from here and marked as stale instead of failing.
+ * <p>
+ * Keeps the last full product list and the most recently read products, up to
+ * `catalog.stale.max.products`. Not thread safe: one instance per verticle.
+ */
+class LastKnownGood {
+
+	private int maxProducts;
+
+	private Stale<List<Product>> products;
+
+	private final Map<String, Stale<Product>> productsById;
+
+	private long served;
+
+	LastKnownGood(JsonObject config) {
+		this.maxProducts = config.getInteger("catalog.stale.max.products", 10000);
+		this.productsById = new LinkedHashMap<String, Stale<Product>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Stale<Product>> eldest) {
+				return size() > maxProducts;
+			}
+		};
+	}
+
+	/**
+	 * Applies `catalog.stale.max.products` of a configuration change, dropping
+	 * the least recently read products beyond it.
+	 */
+	void configure(JsonObject config) {
+		maxProducts = config.getInteger("catalog.stale.max.products", 10000);
+		Iterator<String> eldest = productsById.keySet().iterator();
+		while (productsById.size() > maxProducts) {
+			eldest.next();
+			eldest.remove();
+		}
+	}
+
+	void putProducts(List<Product> products) {
+		this.products = new Stale<>(products);
+	}
+
+	void putProduct(Product product) {
+		productsById.put(product.getItemId(), new Stale<>(product));
+	}
+
+	void removeProduct(String itemId) {
+		productsById.remove(itemId);
+		if (products != null && products.value.stream().anyMatch(p -> itemId.equals(p.getItemId()))) {
+			products = new Stale<>(products.value.stream().filter(p -> !itemId.equals(p.getItemId()))
+					.collect(Collectors.toList()), products.timestamp);
+		}
+	}
+
+	Stale<List<Product>> getProducts() {
+		if (products != null) {
+			served++;
+		}
+		return products;
+	}
+
+	Stale<Product> getProduct(String itemId) {
+		Stale<Product> product = productsById.get(itemId);
+		if (product == null && products != null) {
+			// fall back to the full list
+			product = products.value.stream().filter(p -> itemId.equals(p.getItemId())).findFirst()
+					.map(p -> new Stale<>(p, products.timestamp)).orElse(null);
+		}
+		if (product != null) {
+			served++;
+		}
+		return product;
+	}
+
+	JsonObject toJson() {
+		return new JsonObject().put("products", productsById.size()).put("list", products != null).put("served", served);
+	}
+
+	static class Stale<T> {
+
+		final T value;
+
+		final long timestamp;
+
+		Stale(T value) {
+			this(value, System.currentTimeMillis());
+		}
+
+		Stale(T value, long timestamp) {
+			this.value = value;
+			this.timestamp = timestamp;
+		}
+
+		// in seconds, for the Age header
+		long age() {
+			return (System.currentTimeMillis() - timestamp) / 1000;
+		}
+	}
+}
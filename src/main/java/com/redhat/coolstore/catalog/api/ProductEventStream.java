@@ -0,0 +1,163 @@
+package com.redhat.coolstore.catalog.api;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.redhat.coolstore.catalog.model.Product;
+import com.redhat.coolstore.catalog.verticle.service.CatalogService;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Pushes product changes to HTTP clients as Server-Sent Events.
+ * <p>
+ * Changes are received from the {@link CatalogService#CHANGES_ADDRESS} event
+ * bus address, encoded once per event and written to every subscribed
+ * connection. Each connection has a bounded write queue: while it is full,
+ * events for that connection are dropped, and a connection that keeps dropping
+ * events is closed so that slow consumers cannot hold on to memory. Clients
+ * that missed events can catch up with `/products/changes`.
+ * <p>
+ * All methods are called on the event loop of the owning verticle.
+ */
+class ProductEventStream {
+
+	private final Vertx vertx;
+
+	private final int writeQueueMaxSize;
+
+	private final int maxDroppedEvents;
+
+	private final long heartbeatInterval;
+
+	// subscribers to the whole catalog
+	private final Set<Subscriber> catalogSubscribers = new HashSet<>();
+
+	// subscribers to a set of products, indexed by itemId
+	private final Map<String, Set<Subscriber>> productSubscribers = new HashMap<>();
+
+	private MessageConsumer<Product> consumer;
+
+	private long heartbeatTimer = -1;
+
+	ProductEventStream(Vertx vertx, JsonObject config) {
+		this.vertx = vertx;
+		this.writeQueueMaxSize = config.getInteger("catalog.push.buffer.size", 64 * 1024);
+		this.maxDroppedEvents = config.getInteger("catalog.push.max.dropped", 100);
+		this.heartbeatInterval = config.getLong("catalog.push.heartbeat.interval", 15000L);
+	}
+
+	void start() {
+		consumer = vertx.eventBus().consumer(CatalogService.CHANGES_ADDRESS, this::dispatch);
+		// SSE comment lines keep idle connections open through proxies, and detect
+		// dead peers.
+		Buffer heartbeat = Buffer.buffer(":\n\n");
+		heartbeatTimer = vertx.setPeriodic(heartbeatInterval, tid -> {
+			Set<Subscriber> subscribers = new HashSet<>(catalogSubscribers);
+			productSubscribers.values().forEach(subscribers::addAll);
+			subscribers.forEach(s -> send(s, heartbeat));
+		});
+	}
+
+	void stop() {
+		if (consumer != null) {
+			consumer.unregister();
+		}
+		vertx.cancelTimer(heartbeatTimer);
+	}
+
+	// PATH /products/events[?itemIds=id1,id2,...]
+	void subscribe(RoutingContext rc) {
+		String itemIdsParam = rc.request().getParam("itemIds");
+		Set<String> itemIds = itemIdsParam == null || itemIdsParam.trim().isEmpty() ? null
+				: new HashSet<>(Arrays.asList(itemIdsParam.split(",")));
+
+		HttpServerResponse response = rc.response();
+		response.setChunked(true).setStatusCode(200).putHeader("content-type", "text/event-stream")
+				.putHeader("cache-control", "no-cache").putHeader("connection", "keep-alive");
+		response.setWriteQueueMaxSize(writeQueueMaxSize);
+
+		Subscriber subscriber = new Subscriber(response, itemIds);
+		if (itemIds == null) {
+			catalogSubscribers.add(subscriber);
+		} else {
+			itemIds.forEach(id -> productSubscribers.computeIfAbsent(id, k -> new HashSet<>()).add(subscriber));
+		}
+		response.closeHandler(v -> unsubscribe(subscriber));
+		response.exceptionHandler(t -> unsubscribe(subscriber));
+
+		response.write("retry: 5000\n\n");
+	}
+
+	private void unsubscribe(Subscriber subscriber) {
+		if (subscriber.itemIds == null) {
+			catalogSubscribers.remove(subscriber);
+			return;
+		}
+		for (String itemId : subscriber.itemIds) {
+			Set<Subscriber> subscribers = productSubscribers.get(itemId);
+			if (subscribers != null) {
+				subscribers.remove(subscriber);
+				if (subscribers.isEmpty()) {
+					productSubscribers.remove(itemId);
+				}
+			}
+		}
+	}
+
+	private void dispatch(Message<Product> message) {
+		Product product = message.body();
+		String action = message.headers().get("action");
+		Set<Subscriber> subscribers = productSubscribers.get(product.getItemId());
+		if (catalogSubscribers.isEmpty() && subscribers == null) {
+			return;
+		}
+
+		JsonObject data = "deleted".equals(action) ? new JsonObject().put("itemId", product.getItemId())
+				: product.toJson();
+		Buffer frame = Buffer.buffer().appendString("id: " + message.headers().get("version") + "\n")
+				.appendString("event: " + action + "\n").appendString("data: " + data.encode() + "\n\n");
+
+		// copy, sending may close and unsubscribe a slow consumer
+		new HashSet<>(catalogSubscribers).forEach(s -> send(s, frame));
+		if (subscribers != null) {
+			new HashSet<>(subscribers).forEach(s -> send(s, frame));
+		}
+	}
+
+	private void send(Subscriber subscriber, Buffer frame) {
+		if (subscriber.response.writeQueueFull()) {
+			if (++subscriber.dropped > maxDroppedEvents) {
+				unsubscribe(subscriber);
+				subscriber.response.close();
+			}
+			return;
+		}
+		subscriber.dropped = 0;
+		subscriber.response.write(frame);
+	}
+
+	private static class Subscriber {
+
+		final HttpServerResponse response;
+
+		final Set<String> itemIds;
+
+		// events dropped in a row because the write queue was full
+		int dropped;
+
+		Subscriber(HttpServerResponse response, Set<String> itemIds) {
+			this.response = response;
+			this.itemIds = itemIds;
+		}
+	}
+}
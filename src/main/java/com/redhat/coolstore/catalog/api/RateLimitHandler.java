@@ -0,0 +1,108 @@
+package com.redhat.coolstore.catalog.api;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+/**
+ * Per-client rate limiting with token buckets (see {@link TokenBuckets}).
+ * <p>
+ * Clients are identified by the `catalog.ratelimit.key.header` header (an API
+ * key) when its value is one of the `catalog.ratelimit.keys`, otherwise by
+ * their IP address: the header is not authenticated, so a client could send a
+ * new key with each request to get a new bucket. Requests coming from one of the
+ * `catalog.ratelimit.trusted.proxies` (such as the OpenShift router) are
+ * attributed to the address their `X-Forwarded-For` header gives for the client.
+ * Each route takes its own number of
+ * tokens per request, so that a full product listing costs far more than a
+ * single product. Requests without enough tokens are rejected with 429 and a
+ * `Retry-After` header, before admission control and the catalog service. The
+ * buckets are shared by all the instances of the API verticle.
+ */
+class RateLimitHandler {
+
+	private final TokenBuckets buckets;
+
+	private final String keyHeader;
+
+	private final Set<String> keys = new HashSet<>();
+
+	private final Set<String> trustedProxies = new HashSet<>();
+
+	private final AtomicLong limited = new AtomicLong();
+
+	RateLimitHandler(Vertx vertx, JsonObject config) {
+		TokenBuckets created = new TokenBuckets(config);
+		TokenBuckets existing = vertx.sharedData().<String, TokenBuckets>getLocalMap("catalog-api")
+				.putIfAbsent("buckets", created);
+		this.buckets = existing != null ? existing : created;
+		this.keyHeader = config.getString("catalog.ratelimit.key.header", "X-API-Key");
+		config.getJsonArray("catalog.ratelimit.keys", new JsonArray()).forEach(key -> keys.add((String) key));
+		config.getJsonArray("catalog.ratelimit.trusted.proxies", new JsonArray())
+				.forEach(proxy -> trustedProxies.add((String) proxy));
+	}
+
+	/**
+	 * Applies the capacity and rate of a configuration change. The route costs
+	 * are fixed when the routes are created.
+	 */
+	void configure(JsonObject config) {
+		buckets.configure(config);
+	}
+
+	/**
+	 * A handler taking `cost` tokens per request.
+	 */
+	Handler<RoutingContext> cost(long cost) {
+		return rc -> {
+			long wait = buckets.tryTake(client(rc), cost);
+			if (wait > 0) {
+				limited.incrementAndGet();
+				rc.response().setStatusCode(429).putHeader("Retry-After", Long.toString((wait + 999) / 1000)).end();
+				return;
+			}
+			rc.next();
+		};
+	}
+
+	private String client(RoutingContext rc) {
+		String key = rc.request().getHeader(keyHeader);
+		return key != null && keys.contains(key) ? "key:" + key : "ip:" + address(rc);
+	}
+
+	// The address of the client. Behind trusted proxies, it is the last address
+	// of X-Forwarded-For that is not one of them: the addresses before it were
+	// sent by the client, and may be forged.
+	private String address(RoutingContext rc) {
+		String address = rc.request().remoteAddress().host();
+		if (!trustedProxies.contains(address)) {
+			return address;
+		}
+		List<String> forwarded = rc.request().headers().getAll("X-Forwarded-For");
+		for (int i = forwarded.size() - 1; i >= 0; i--) {
+			String[] hops = forwarded.get(i).split(",");
+			for (int j = hops.length - 1; j >= 0; j--) {
+				String hop = hops[j].trim();
+				if (hop.isEmpty()) {
+					continue;
+				}
+				address = hop;
+				if (!trustedProxies.contains(hop)) {
+					return hop;
+				}
+			}
+		}
+		return address;
+	}
+
+	JsonObject toJson() {
+		return buckets.toJson().put("limited", limited.get());
+	}
+}
@@ -0,0 +1,208 @@
+package com.redhat.coolstore.catalog.api;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Token buckets of the API clients, in a fixed-size table, safe for use from
+ * several event loops.
+ * <p>
+ * Each bucket holds up to `capacity` tokens and gains `rate` tokens per second.
+ * The table is two arrays of longs: the 64-bit hash of the client, and the
+ * bucket state packed as the time of the last update (ms since the table was
+ * created, 40 bits) and the tokens left (thousandths, 24 bits, so at most
+ * {@link #MAX_CAPACITY} tokens). Both are updated with CAS, there are no locks
+ * and no allocation per request.
+ * <p>
+ * A client is looked up in a few slots following its hash. A bucket idle long
+ * enough to be full again is equivalent to no bucket, so its slot is reused
+ * for another client: entries expire by themselves and the table never grows,
+ * however many clients there are. When all the slots probed are in use, the
+ * least recently updated one is taken over, which only gives its client a
+ * fresh bucket.
+ * <p>
+ * The capacity and the rate can be changed at any time: buckets refill at the
+ * new rate, and never hold more than the new capacity.
+ */
+class TokenBuckets implements Shareable {
+
+	private static final int PROBES = 8;
+
+	private static final int TOKENS_BITS = 24;
+
+	private static final long TOKENS_MASK = (1L << TOKENS_BITS) - 1;
+
+	private static final long EMPTY = 0;
+
+	static final long MAX_CAPACITY = TOKENS_MASK / 1000;
+
+	private final AtomicLongArray clients;
+
+	private final AtomicLongArray states;
+
+	private final int mask;
+
+	private volatile long capacity;
+
+	private volatile double rate;
+
+	// ms for an empty bucket to be full again
+	private volatile long refillTime;
+
+	private final long epoch = System.currentTimeMillis();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param slots
+	 *            the number of clients tracked at once, rounded up to a power of
+	 *            two
+	 */
+	TokenBuckets(int slots, long capacity, double rate) {
+		int size = 1;
+		while (size < slots) {
+			size <<= 1;
+		}
+		this.clients = new AtomicLongArray(size);
+		this.states = new AtomicLongArray(size);
+		this.mask = size - 1;
+		configure(capacity, rate);
+	}
+
+	TokenBuckets(JsonObject config) {
+		this(config.getInteger("catalog.ratelimit.clients", 65536), config.getLong("catalog.ratelimit.capacity", 100L),
+				config.getDouble("catalog.ratelimit.rate", 20.0));
+	}
+
+	/**
+	 * @param rate
+	 *            in tokens per second
+	 */
+	void configure(long capacity, double rate) {
+		long tokens = Math.min(capacity, MAX_CAPACITY) * 1000;
+		// a request racing with this sees the new capacity with the old rate at worst
+		this.rate = rate;
+		this.capacity = tokens;
+		this.refillTime = (long) Math.ceil(tokens / rate);
+	}
+
+	void configure(JsonObject config) {
+		configure(config.getLong("catalog.ratelimit.capacity", 100L), config.getDouble("catalog.ratelimit.rate", 20.0));
+	}
+
+	/**
+	 * Takes `cost` tokens from the bucket of `client`, if it has them.
+	 *
+	 * @return 0 if the tokens were taken, otherwise the number of ms before the
+	 *         bucket has them
+	 */
+	long tryTake(String client, long cost) {
+		long hash = hash(client);
+		long now = System.currentTimeMillis() - epoch;
+		long needed = Math.min(cost * 1000, capacity);
+		while (true) {
+			int slot = find(hash, now);
+			long state = states.get(slot);
+			long tokens = tokens(state, now);
+			if (tokens < needed) {
+				return (long) Math.ceil((needed - tokens) / rate);
+			}
+			if (states.compareAndSet(slot, state, pack(now, tokens - needed))) {
+				return 0;
+			}
+		}
+	}
+
+	// the slot of the client, claimed for it if it has none
+	private int find(long hash, long now) {
+		int start = (int) hash & mask;
+		while (true) {
+			// the slot of the client may follow one that can be claimed
+			for (int i = 0; i < PROBES; i++) {
+				int slot = (start + i) & mask;
+				if (clients.get(slot) == hash) {
+					return slot;
+				}
+			}
+			int oldest = -1;
+			long oldestTime = -1;
+			for (int i = 0; i < PROBES; i++) {
+				int slot = (start + i) & mask;
+				long client = clients.get(slot);
+				if (client == hash) {
+					// claimed by a concurrent request of the client
+					return slot;
+				}
+				long state = states.get(slot);
+				long idle = idle(state, now);
+				if (client == EMPTY || idle >= refillTime) {
+					if (claim(slot, client, state, hash, now)) {
+						return slot;
+					}
+				} else if (idle > oldestTime) {
+					oldest = slot;
+					oldestTime = idle;
+				}
+			}
+			if (oldest >= 0 && claim(oldest, clients.get(oldest), states.get(oldest), hash, now)) {
+				evictions.incrementAndGet();
+				return oldest;
+			}
+		}
+	}
+
+	// the bucket is reset before the slot is published, so that a concurrent
+	// request of the same client cannot see the previous bucket
+	private boolean claim(int slot, long previousClient, long previousState, long hash, long now) {
+		return states.compareAndSet(slot, previousState, pack(now, capacity))
+				&& clients.compareAndSet(slot, previousClient, hash);
+	}
+
+	private long tokens(long state, long now) {
+		long tokens = state & TOKENS_MASK;
+		return Math.min(capacity, tokens + (long) (idle(state, now) * rate));
+	}
+
+	// ms since the last update of the bucket, 0 if it was updated by a request
+	// that read the clock later than this one
+	private static long idle(long state, long now) {
+		return Math.max(0, now - (state >>> TOKENS_BITS));
+	}
+
+	private static long pack(long now, long tokens) {
+		return now << TOKENS_BITS | tokens;
+	}
+
+	/**
+	 * The number of slots in use by clients that are not back to a full bucket.
+	 */
+	int active() {
+		long now = System.currentTimeMillis() - epoch;
+		int active = 0;
+		for (int i = 0; i < clients.length(); i++) {
+			if (clients.get(i) != EMPTY && idle(states.get(i), now) < refillTime) {
+				active++;
+			}
+		}
+		return active;
+	}
+
+	JsonObject toJson() {
+		return new JsonObject().put("slots", clients.length()).put("active", active()).put("evictions",
+				evictions.get());
+	}
+
+	// 64-bit FNV-1a, never EMPTY
+	private static long hash(String client) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : client.getBytes(StandardCharsets.UTF_8)) {
+			h ^= b;
+			h *= 0x100000001b3L;
+		}
+		return h == EMPTY ? 1 : h;
+	}
+}
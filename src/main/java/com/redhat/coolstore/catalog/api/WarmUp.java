@@ -0,0 +1,264 @@
+package com.redhat.coolstore.catalog.api;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.redhat.coolstore.catalog.model.Product;
+import com.redhat.coolstore.catalog.verticle.service.CatalogService;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * Startup warm-up of the catalog.
+ * <p>
+ * The most requested products are tracked in an {@link AccessSketch} and saved
+ * to `catalog.warmup.file` every `catalog.warmup.persist.interval` ms and on
+ * stop. On start, the saved frequencies are loaded back, and once the catalog
+ * service answers, the `catalog.warmup.keys` most requested products are read
+ * through it, `catalog.warmup.concurrency` at a time, which fills the caches
+ * on the way. With `catalog.warmup.products`, the product list is read too, so
+ * that the encoded `/products` response can be prebuilt.
+ * <p>
+ * Warm-up is over when all reads are done or after `catalog.warmup.deadline`
+ * ms, whichever comes first.
+ * <p>
+ * One warm-up is shared by all the instances of the API verticle: the first
+ * one runs it, and they all report ready once it is over. Each instance calls
+ * {@link #persistIfDue()} from its own timer, since timers stop with their
+ * instance, and the file is written once per interval whichever instances are
+ * left. The last instance to stop saves it one more time.
+ */
+class WarmUp implements Shareable {
+
+	private final Vertx vertx;
+
+	private final CatalogService catalogService;
+
+	private final AccessSketch sketch;
+
+	private final String file;
+
+	private final int keys;
+
+	private final int concurrency;
+
+	private final boolean products;
+
+	private final long deadline;
+
+	private final long persistInterval;
+
+	private final AtomicLong nextPersist = new AtomicLong();
+
+	private int users;
+
+	// written by the event loop of the instance running the warm-up, read by all
+	private volatile boolean done;
+
+	private volatile boolean timedOut;
+
+	private volatile int warmed;
+
+	private long started;
+
+	private volatile long duration = -1;
+
+	WarmUp(Vertx vertx, JsonObject config, CatalogService catalogService, AccessSketch sketch) {
+		this.vertx = vertx;
+		this.catalogService = catalogService;
+		this.sketch = sketch;
+		this.file = config.getString("catalog.warmup.file", "catalog-hotkeys.json");
+		this.keys = config.getInteger("catalog.warmup.keys", 100);
+		this.concurrency = config.getInteger("catalog.warmup.concurrency", 8);
+		this.products = config.getBoolean("catalog.warmup.products", true);
+		this.deadline = config.getLong("catalog.warmup.deadline", 30000L);
+		this.persistInterval = config.getLong("catalog.warmup.persist.interval", 60000L);
+	}
+
+	/**
+	 * Adds an instance of the API verticle using this warm-up.
+	 *
+	 * @return true for the first one, which starts it
+	 */
+	synchronized boolean retain() {
+		return users++ == 0;
+	}
+
+	/**
+	 * Removes an instance of the API verticle.
+	 *
+	 * @return true for the last one, which stops it
+	 */
+	synchronized boolean release() {
+		return --users == 0;
+	}
+
+	/**
+	 * Loads the saved frequencies and warms up. `productHandler` and
+	 * `productsHandler` get the products read, `doneHandler` is called once
+	 * warm-up is over.
+	 */
+	void start(Handler<Product> productHandler, Handler<List<Product>> productsHandler, Handler<Void> doneHandler) {
+		started = System.currentTimeMillis();
+		long deadlineTimer = vertx.setTimer(deadline, tid -> {
+			if (!done) {
+				timedOut = true;
+				done = true;
+				duration = System.currentTimeMillis() - started;
+				System.out.println("Warm-up timed out after " + duration + " ms, " + warmed + " products read");
+				doneHandler.handle(null);
+			}
+		});
+		Handler<Void> finish = v -> {
+			if (!done) {
+				vertx.cancelTimer(deadlineTimer);
+				done = true;
+				duration = System.currentTimeMillis() - started;
+				System.out.println("Warm-up done after " + duration + " ms, " + warmed + " products read");
+				doneHandler.handle(null);
+			}
+		};
+		load(v -> whenAvailable(available -> {
+			List<String> hot = sketch.top(keys);
+			int[] pending = { hot.size() + (products ? 1 : 0) };
+			if (pending[0] == 0) {
+				finish.handle(null);
+				return;
+			}
+			Handler<Void> completed = c -> {
+				if (--pending[0] == 0) {
+					finish.handle(null);
+				}
+			};
+			if (products) {
+				catalogService.getProducts(ar -> {
+					if (ar.succeeded() && !done) {
+						productsHandler.handle(ar.result());
+					}
+					completed.handle(null);
+				});
+			}
+			Iterator<String> itemIds = hot.iterator();
+			for (int i = 0; i < concurrency; i++) {
+				next(itemIds, productHandler, completed);
+			}
+		}));
+	}
+
+	private void next(Iterator<String> itemIds, Handler<Product> productHandler, Handler<Void> completed) {
+		if (done || !itemIds.hasNext()) {
+			return;
+		}
+		catalogService.getProduct(itemIds.next(), ar -> {
+			if (ar.succeeded() && ar.result() != null && !done) {
+				warmed++;
+				productHandler.handle(ar.result());
+			}
+			completed.handle(null);
+			next(itemIds, productHandler, completed);
+		});
+	}
+
+	private void load(Handler<Void> handler) {
+		vertx.fileSystem().readFile(file, ar -> {
+			if (ar.succeeded()) {
+				try {
+					new JsonObject(ar.result()).getJsonArray("keys", new JsonArray()).forEach(key -> {
+						JsonObject entry = (JsonObject) key;
+						sketch.add(entry.getString("itemId"), entry.getLong("count", 1L));
+					});
+				} catch (RuntimeException e) {
+					System.out.println("Ignoring unreadable warm-up file " + file + ": " + e.getMessage());
+				}
+			}
+			handler.handle(null);
+		});
+	}
+
+	// the catalog service is deployed in parallel with the API, wait for it
+	private void whenAvailable(Handler<Void> handler) {
+		catalogService.ping(ar -> {
+			if (ar.succeeded()) {
+				handler.handle(null);
+			} else if (!done) {
+				vertx.setTimer(500, tid -> whenAvailable(handler));
+			}
+		});
+	}
+
+	/**
+	 * Ends a warm-up whose instance stops before it is over, so that the other
+	 * instances do not wait for it.
+	 */
+	void cancel() {
+		if (!done) {
+			done = true;
+			duration = System.currentTimeMillis() - started;
+			System.out.println("Warm-up stopped after " + duration + " ms, " + warmed + " products read");
+		}
+	}
+
+	/**
+	 * Saves the most requested products, unless they were saved less than
+	 * `catalog.warmup.persist.interval` ms ago.
+	 */
+	void persistIfDue() {
+		long now = System.currentTimeMillis();
+		long due = nextPersist.get();
+		if (now >= due && nextPersist.compareAndSet(due, now + persistInterval)) {
+			persist(v -> {
+			});
+		}
+	}
+
+	/**
+	 * Saves the most requested products, to a temporary file first so that a
+	 * crash cannot leave a torn file behind.
+	 */
+	void persist(Handler<Void> handler) {
+		Buffer saved = new JsonObject().put("keys", sketch.toJson(keys)).toBuffer();
+		vertx.<Void>executeBlocking(future -> {
+			// the instances share the temporary file
+			synchronized (this) {
+				try {
+					Path target = Paths.get(file);
+					Path tmp = Paths.get(file + ".tmp");
+					Files.write(tmp, saved.getBytes());
+					Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					future.complete();
+				} catch (IOException e) {
+					future.fail(e);
+				}
+			}
+		}, false, ar -> {
+			if (ar.failed()) {
+				System.out.println("Failed to save warm-up file " + file + ": " + ar.cause().getMessage());
+			}
+			handler.handle(null);
+		});
+	}
+
+	long persistInterval() {
+		return persistInterval;
+	}
+
+	boolean isDone() {
+		return done;
+	}
+
+	JsonObject toJson() {
+		return new JsonObject().put("done", done).put("timedOut", timedOut).put("products", warmed).put("duration",
+				duration);
+	}
+}
@@ -0,0 +1,182 @@
+package com.redhat.coolstore.catalog.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.EncodeException;
+
+/**
+ * Compact binary (CBOR) encoding of {@link Product}.
+ * <p>
+ * The encoder writes the same fields as {@link Product#toJson()} straight to a
+ * {@link Buffer}, without building an intermediate {@code JsonObject}. The
+ * class doubles as an event bus {@link MessageCodec} so that products can be
+ * sent between verticles in the same binary form.
+ */
+public class ProductCodec implements MessageCodec<Product, Product> {
+
+	public static final String CONTENT_TYPE = "application/cbor";
+
+	public static final String NAME = "product-cbor";
+
+	private static final CBORFactory FACTORY = new CBORFactory();
+
+	/**
+	 * Registers this codec as the default event bus codec for {@link Product}.
+	 * Safe to call more than once.
+	 */
+	public static void register(EventBus eventBus) {
+		try {
+			eventBus.registerDefaultCodec(Product.class, new ProductCodec());
+		} catch (IllegalStateException e) {
+			// already registered by another verticle
+		}
+	}
+
+	public static Buffer encode(Product product) {
+		ByteBuf buf = Unpooled.buffer(64);
+		try (JsonGenerator generator = FACTORY.createGenerator(new ByteBufOutputStream(buf))) {
+			writeProduct(generator, product);
+		} catch (IOException e) {
+			throw new EncodeException("Failed to encode product: " + e.getMessage());
+		}
+		return Buffer.buffer(buf);
+	}
+
+	public static Buffer encode(List<Product> products) {
+		ByteBuf buf = Unpooled.buffer(64 * products.size() + 8);
+		try (JsonGenerator generator = FACTORY.createGenerator(new ByteBufOutputStream(buf))) {
+			generator.writeStartArray(products.size());
+			for (Product product : products) {
+				writeProduct(generator, product);
+			}
+			generator.writeEndArray();
+		} catch (IOException e) {
+			throw new EncodeException("Failed to encode products: " + e.getMessage());
+		}
+		return Buffer.buffer(buf);
+	}
+
+	public static Product decodeProduct(Buffer buffer) {
+		try (JsonParser parser = FACTORY.createParser(new ByteBufInputStream(buffer.getByteBuf()))) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new DecodeException("Expected a product map");
+			}
+			return readProduct(parser);
+		} catch (IOException e) {
+			throw new DecodeException("Failed to decode product: " + e.getMessage());
+		}
+	}
+
+	public static List<Product> decodeProducts(Buffer buffer) {
+		try (JsonParser parser = FACTORY.createParser(new ByteBufInputStream(buffer.getByteBuf()))) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new DecodeException("Expected an array of products");
+			}
+			List<Product> products = new ArrayList<>();
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				products.add(readProduct(parser));
+			}
+			return products;
+		} catch (IOException e) {
+			throw new DecodeException("Failed to decode products: " + e.getMessage());
+		}
+	}
+
+	private static void writeProduct(JsonGenerator generator, Product product) throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField("itemId", product.getItemId());
+		generator.writeStringField("name", product.getName());
+		generator.writeStringField("desc", product.getDesc());
+		// prices mostly fit a single precision float, which CBOR stores in 5 bytes
+		// instead of 9
+		double price = product.getPrice();
+		generator.writeFieldName("price");
+		if ((float) price == price) {
+			generator.writeNumber((float) price);
+		} else {
+			generator.writeNumber(price);
+		}
+		generator.writeEndObject();
+	}
+
+	private static Product readProduct(JsonParser parser) throws IOException {
+		Product product = new Product();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			switch (field) {
+			case "itemId":
+				product.setItemId(parser.getValueAsString());
+				break;
+			case "name":
+				product.setName(parser.getValueAsString());
+				break;
+			case "desc":
+				product.setDesc(parser.getValueAsString());
+				break;
+			case "price":
+				product.setPrice(parser.getValueAsDouble());
+				break;
+			default:
+				if (value.isStructStart()) {
+					parser.skipChildren();
+				}
+			}
+		}
+		return product;
+	}
+
+	// -----
+	// MessageCodec implementation. On the wire a product is a length prefixed
+	// CBOR document.
+	// -----
+	@Override
+	public void encodeToWire(Buffer buffer, Product product) {
+		Buffer encoded = encode(product);
+		buffer.appendInt(encoded.length());
+		buffer.appendBuffer(encoded);
+	}
+
+	@Override
+	public Product decodeFromWire(int pos, Buffer buffer) {
+		int length = buffer.getInt(pos);
+		pos += 4;
+		return decodeProduct(buffer.getBuffer(pos, pos + length));
+	}
+
+	@Override
+	public Product transform(Product product) {
+		// local delivery: hand out a copy, the same way JsonObject messages are copied
+		Product copy = new Product();
+		copy.setItemId(product.getItemId());
+		copy.setName(product.getName());
+		copy.setDesc(product.getDesc());
+		copy.setPrice(product.getPrice());
+		return copy;
+	}
+
+	@Override
+	public String name() {
+		return NAME;
+	}
+
+	@Override
+	public byte systemCodecID() {
+		return -1;
+	}
+}
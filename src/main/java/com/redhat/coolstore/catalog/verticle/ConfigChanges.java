@@ -0,0 +1,112 @@
+package com.redhat.coolstore.catalog.verticle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * The configuration changes seen by {@link MainVerticle} while running,
+ * reported in `/admin/stats`.
+ * <p>
+ * The new configuration is published on {@link #ADDRESS}, and the verticles
+ * apply the tuning settings of {@link #LIVE} without a restart. Other settings
+ * (ports, store, pools...) are only read on start: their changes are logged
+ * and counted as pending a restart, by name only since they include the
+ * database credentials.
+ */
+public final class ConfigChanges {
+
+	public static final String ADDRESS = "catalog-config.changes";
+
+	/**
+	 * The settings applied live, as keys or key prefixes ending with a dot.
+	 */
+	static final List<String> LIVE = Arrays.asList("catalog.http.instances", "catalog.http.drain.timeout",
+			"catalog.admission.", "catalog.limits.", "catalog.ratelimit.capacity", "catalog.ratelimit.rate",
+			"catalog.cache.l1.size", "catalog.cache.l2.size", "catalog.cache.ttl", "catalog.stale.max.products",
+			"catalog.warmup.products.ttl", "catalog.hotkeys.top");
+
+	private static long reloads;
+
+	private static long applied;
+
+	private static final Set<String> pendingRestart = new TreeSet<>();
+
+	// the values in effect of the settings pending a restart, never reported
+	private static final Map<String, Object> inEffect = new HashMap<>();
+
+	private static JsonObject last;
+
+	private static int instances;
+
+	private ConfigChanges() {
+	}
+
+	static boolean isLive(String key) {
+		return LIVE.stream().anyMatch(live -> live.endsWith(".") ? key.startsWith(live) : key.equals(live));
+	}
+
+	/**
+	 * Records the changes from `previous` to `next`.
+	 *
+	 * @return the keys changed, added or removed
+	 */
+	static synchronized List<String> record(JsonObject previous, JsonObject next) {
+		Set<String> keys = new TreeSet<>(previous.fieldNames());
+		keys.addAll(next.fieldNames());
+		List<String> changed = new ArrayList<>();
+		JsonObject changes = new JsonObject();
+		for (String key : keys) {
+			Object from = previous.getValue(key);
+			Object to = next.getValue(key);
+			if (from == null ? to == null : from.equals(to)) {
+				continue;
+			}
+			changed.add(key);
+			if (isLive(key)) {
+				applied++;
+				changes.put(key, new JsonObject().put("from", from).put("to", to).put("live", true));
+				System.out.println("Configuration change: " + key + " " + from + " -> " + to + ", applied");
+				continue;
+			}
+			changes.put(key, new JsonObject().put("live", false));
+			if (!inEffect.containsKey(key)) {
+				inEffect.put(key, from);
+			}
+			Object effective = inEffect.get(key);
+			if (effective == null ? to == null : effective.equals(to)) {
+				inEffect.remove(key);
+				pendingRestart.remove(key);
+				System.out.println("Configuration change: " + key + " back to the value in effect");
+			} else {
+				pendingRestart.add(key);
+				System.out.println("Configuration change: " + key + ", needs a restart");
+			}
+		}
+		if (!changed.isEmpty()) {
+			reloads++;
+			last = new JsonObject().put("time", System.currentTimeMillis()).put("changes", changes);
+		}
+		return changed;
+	}
+
+	static synchronized void instances(int running) {
+		instances = running;
+	}
+
+	public static synchronized JsonObject toJson() {
+		JsonObject json = new JsonObject().put("reloads", reloads).put("applied", applied)
+				.put("pendingRestart", new JsonArray(new ArrayList<>(pendingRestart))).put("instances", instances);
+		if (last != null) {
+			json.put("last", last.copy());
+		}
+		return json;
+	}
+}
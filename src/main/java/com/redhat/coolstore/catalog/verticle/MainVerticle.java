@@ -1,9 +1,16 @@
 package com.redhat.coolstore.catalog.verticle;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import com.redhat.coolstore.catalog.api.ApiVerticle;
+import com.redhat.coolstore.catalog.model.ProductCodec;
 import com.redhat.coolstore.catalog.verticle.service.CatalogService;
 import com.redhat.coolstore.catalog.verticle.service.CatalogVerticle;
+import com.redhat.coolstore.catalog.verticle.service.ProductStore;
 
+import io.vertx.config.ConfigChange;
 import io.vertx.config.ConfigRetriever;
 import io.vertx.config.ConfigRetrieverOptions;
 import io.vertx.config.ConfigStoreOptions;
@@ -11,12 +18,27 @@ import io.vertx.core.AbstractVerticle;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
+import io.vertx.core.http.HttpClient;
 import io.vertx.core.json.JsonObject;
 
 public class MainVerticle extends AbstractVerticle {
 
+	private ConfigRetriever retriever;
+
+	// the configuration deployed, updated by the changes seen by the retriever
+	private JsonObject config;
+
+	private CatalogService catalogService;
+
+	// one deployment per API verticle instance, so that they can be undeployed
+	// one at a time
+	private final List<String> apiDeployments = new ArrayList<>();
+
+	private boolean scaling;
+
 	@Override
 	public void start(Future<Void> startFuture) throws Exception {
+		StartupTimer.mark("main");
 
 		// ----
 		// To be implemented
@@ -47,10 +69,22 @@ public class MainVerticle extends AbstractVerticle {
 			// default to json based config
 			jsonConfigStore.setConfig(config());
 			options.addStore(jsonConfigStore);
+			// a file watched for changes, overriding the deployment configuration
+			String file = config().getString("catalog.config.file");
+			if (file != null) {
+				options.addStore(new ConfigStoreOptions().setType("file")
+						.setFormat(file.endsWith(".yaml") || file.endsWith(".yml") ? "yaml" : "json")
+						.setConfig(new JsonObject().put("path", file)));
+			}
 		}
+		options.setScanPeriod(config().getLong("catalog.config.scan.period", 5000L));
 
-		ConfigRetriever.create(vertx, options).getConfig(ar -> {
+		retriever = ConfigRetriever.create(vertx, options);
+		retriever.getConfig(ar -> {
 			if (ar.succeeded()) {
+				StartupTimer.mark("config");
+				config = ar.result();
+				retriever.listen(change -> reconfigure(change));
 				deployVerticles(ar.result(), startFuture);
 			} else {
 				System.out.println("Failed to retrieve the configuration.");
@@ -76,22 +110,37 @@ public class MainVerticle extends AbstractVerticle {
 		// CompositeFuture
 		//
 		// ----
-		CatalogService catalogService = CatalogService.createProxy(vertx);
+		ProductCodec.register(vertx.eventBus());
+		catalogService = CatalogService.createProxyWithTimeout(vertx, config.getLong("catalog.request.timeout", 5000L));
 
-		ApiVerticle apiVerticle = new ApiVerticle(catalogService);
 		CatalogVerticle catalogVerticle = new CatalogVerticle();
 
 		DeploymentOptions options = new DeploymentOptions();
 		options.setConfig(config);
 
-		Future<String> apiVerticleFuture = Future.future();
+		// the API verticle instances share the HTTP port
+		List<Future> apiVerticleFutures = new ArrayList<>();
+		for (int i = 0; i < instances(config); i++) {
+			Future<String> apiVerticleFuture = Future.future();
+			vertx.deployVerticle(new ApiVerticle(catalogService), options, apiVerticleFuture.completer());
+			apiVerticleFutures.add(apiVerticleFuture);
+		}
 		Future<String> catalogVerticleFuture = Future.future();
 
-		vertx.deployVerticle(apiVerticle, options, apiVerticleFuture.completer());
 		vertx.deployVerticle(catalogVerticle, options, catalogVerticleFuture.completer());
 
-		CompositeFuture.all(apiVerticleFuture, catalogVerticleFuture).setHandler(ar -> {
+		List<Future> all = new ArrayList<>(apiVerticleFutures);
+		all.add(catalogVerticleFuture);
+		CompositeFuture.all(all).setHandler(ar -> {
 			if (ar.succeeded()) {
+				apiVerticleFutures.forEach(f -> apiDeployments.add((String) f.result()));
+				ConfigChanges.instances(apiDeployments.size());
+				StartupTimer.mark("deployed");
+				// changes seen while deploying
+				scale();
+				if (config.getBoolean("catalog.startup.training", false)) {
+					train(config);
+				}
 				startFuture.complete();
 			} else {
 				startFuture.fail(ar.cause());
@@ -99,8 +148,114 @@ public class MainVerticle extends AbstractVerticle {
 		});
 	}
 
+	private static int instances(JsonObject config) {
+		return Math.max(1, config.getInteger("catalog.http.instances", 1));
+	}
+
+	// Applies a configuration change: the verticles apply the tuning settings
+	// they read, and API verticle instances are deployed or undeployed to match
+	// `catalog.http.instances`. The other settings keep their value until the
+	// next start, new instances included.
+	private void reconfigure(ConfigChange change) {
+		JsonObject next = change.getNewConfiguration();
+		JsonObject applied = config.copy();
+		List<String> changed = ConfigChanges.record(change.getPreviousConfiguration(), next);
+		changed.stream().filter(ConfigChanges::isLive).forEach(key -> {
+			if (next.containsKey(key)) {
+				applied.put(key, next.getValue(key));
+			} else {
+				applied.remove(key);
+			}
+		});
+		if (applied.equals(config)) {
+			return;
+		}
+		config = applied;
+		vertx.eventBus().publish(ConfigChanges.ADDRESS, config);
+		if (catalogService != null) {
+			scale();
+		}
+	}
+
+	// Deploys or undeploys one instance at a time until there are as many as
+	// configured. An undeployed instance stops once its requests in flight are
+	// answered.
+	private void scale() {
+		int instances = instances(config);
+		if (scaling || apiDeployments.isEmpty() || apiDeployments.size() == instances) {
+			return;
+		}
+		scaling = true;
+		if (apiDeployments.size() < instances) {
+			vertx.deployVerticle(new ApiVerticle(catalogService), new DeploymentOptions().setConfig(config), ar -> {
+				scaling = false;
+				if (ar.failed()) {
+					System.out.println("Failed to deploy an API verticle instance: " + ar.cause().getMessage());
+					return;
+				}
+				apiDeployments.add(ar.result());
+				ConfigChanges.instances(apiDeployments.size());
+				scale();
+			});
+		} else {
+			String deploymentId = apiDeployments.remove(apiDeployments.size() - 1);
+			ConfigChanges.instances(apiDeployments.size());
+			vertx.undeploy(deploymentId, ar -> {
+				scaling = false;
+				scale();
+			});
+		}
+	}
+
+	// Training run of the fast-start build (see the `fast-start` profile): serves
+	// a few requests so that the classes of the request path are loaded too, then
+	// exits, which writes the class-data sharing archive.
+	private void train(JsonObject config) {
+		HttpClient client = vertx.createHttpClient();
+		int port = config.getInteger("catalog.http.port", 8080);
+		long timeout = config.getLong("catalog.startup.training.timeout", 10000L);
+		List<String> paths = Arrays.asList("/health/readiness", "/products", "/product/329299", "/admin/stats");
+		Future<Void> trained = trainMongo(config);
+		for (String path : paths) {
+			trained = trained.compose(v -> {
+				Future<Void> served = Future.future();
+				client.get(port, "localhost", path, response -> response.bodyHandler(body -> served.tryComplete()))
+						.exceptionHandler(e -> served.tryComplete()).setTimeout(timeout).end();
+				return served;
+			});
+		}
+		trained.setHandler(ar -> {
+			System.out.println("Training run done, exiting");
+			vertx.close(closed -> System.exit(0));
+		});
+	}
+
+	// The training run serves from the file store, while production uses Mongo,
+	// which is not reachable when packaging: calls to a Mongo store that fail
+	// server selection at once load the Mongo client and driver classes. The
+	// store points at a documentation address (RFC 5737) that routes nowhere, so
+	// that a Mongo running on the build host is never contacted.
+	private Future<Void> trainMongo(JsonObject config) {
+		Future<Void> trained = Future.future();
+		if (config.getString("catalog.store.type", "mongo").equals("mongo")) {
+			trained.complete();
+			return trained;
+		}
+		ProductStore store = ProductStore.create(vertx, new JsonObject().put("catalog.store.type", "mongo")
+				.put("host", "192.0.2.1").put("serverSelectionTimeoutMS", 0L).put("catalog.mongo.connect.timeout", 1000));
+		Future<List<JsonObject>> found = Future.future();
+		Future<Void> pinged = Future.future();
+		store.findProducts(found.completer());
+		store.ping(pinged.completer());
+		CompositeFuture.join(found, pinged).setHandler(ar -> store.close(closed -> trained.complete()));
+		return trained;
+	}
+
 	@Override
 	public void stop(Future<Void> stopFuture) throws Exception {
+		if (retriever != null) {
+			retriever.close();
+		}
 		super.stop(stopFuture);
 	}
 
@@ -0,0 +1,53 @@
+package com.redhat.coolstore.catalog.verticle;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Time from the JVM start to each startup phase, logged when the phase is
+ * first reached and reported in `/admin/stats`:
+ * <ul>
+ * <li>`main` the main verticle starts (JVM and Vert.x boot)</li>
+ * <li>`config` the configuration is retrieved</li>
+ * <li>`store` the catalog store is open</li>
+ * <li>`service` the catalog service is registered</li>
+ * <li>`deployed` all verticles are deployed</li>
+ * <li>`database` the first database ping succeeded</li>
+ * <li>`ready` warm-up is over, readiness succeeds</li>
+ * <li>`request` the first HTTP response is sent</li>
+ * </ul>
+ */
+public final class StartupTimer {
+
+	private static final Map<String, Long> phases = new ConcurrentHashMap<>();
+
+	private StartupTimer() {
+	}
+
+	/**
+	 * Records the phase, unless it was already reached.
+	 */
+	public static void mark(String phase) {
+		long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+		if (phases.putIfAbsent(phase, uptime) == null) {
+			System.out.println("Startup: " + phase + " after " + uptime + " ms");
+		}
+	}
+
+	public static boolean reached(String phase) {
+		return phases.containsKey(phase);
+	}
+
+	/**
+	 * The phases reached, in ms since the JVM start.
+	 */
+	public static JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		phases.entrySet().stream().sorted(Map.Entry.comparingByValue())
+				.forEach(phase -> json.put(phase.getKey(), phase.getValue()));
+		return json;
+	}
+}
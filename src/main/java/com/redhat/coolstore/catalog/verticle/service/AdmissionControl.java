@@ -0,0 +1,117 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceException;
+
+/**
+ * Admission control for one {@link CatalogService} method.
+ * <p>
+ * Calls run while the {@link ConcurrencyLimiter} of the method has permits.
+ * Excess calls wait in a bounded queue, and are rejected with a 503
+ * {@link ServiceException} once the queue is full. A queued call that has
+ * waited longer than the request timeout is dropped when it reaches the head
+ * of the queue: its caller has given up on the event bus reply already.
+ */
+class AdmissionControl {
+
+	private final String method;
+
+	private final ConcurrencyLimiter limiter;
+
+	private int maxQueued;
+
+	private final long requestTimeout;
+
+	private final Deque<Queued> queue = new ArrayDeque<>();
+
+	private long rejected;
+
+	private long expired;
+
+	AdmissionControl(JsonObject config, String method) {
+		this.method = method;
+		this.limiter = ConcurrencyLimiter.create(config, "catalog.limits", method);
+		this.maxQueued = ConcurrencyLimiter.setting(config, "catalog.limits", method, "queue.size", 100);
+		this.requestTimeout = TimeUnit.MILLISECONDS.toNanos(config.getLong("catalog.request.timeout", 5000L));
+	}
+
+	/**
+	 * Applies the limits of a configuration change. Calls already queued stay
+	 * queued, and run at once if the new limit has room for them.
+	 */
+	void configure(JsonObject config) {
+		limiter.configure(config, "catalog.limits", method);
+		maxQueued = ConcurrencyLimiter.setting(config, "catalog.limits", method, "queue.size", 100);
+		drain();
+	}
+
+	/**
+	 * Runs `task` when admitted, passing it the handler to complete. The result
+	 * is forwarded to `resultHandler`.
+	 */
+	<T> void execute(Handler<Handler<AsyncResult<T>>> task, Handler<AsyncResult<T>> resultHandler) {
+		if (limiter.tryAcquire()) {
+			run(task, resultHandler);
+		} else if (queue.size() < maxQueued) {
+			queue.add(new Queued(System.nanoTime(), () -> run(task, resultHandler),
+					() -> resultHandler.handle(ServiceException.fail(503, method + ": request deadline exceeded"))));
+		} else {
+			rejected++;
+			resultHandler.handle(ServiceException.fail(503, method + ": too many concurrent requests"));
+		}
+	}
+
+	private <T> void run(Handler<Handler<AsyncResult<T>>> task, Handler<AsyncResult<T>> resultHandler) {
+		long start = System.nanoTime();
+		boolean[] completed = new boolean[1];
+		task.handle(ar -> {
+			if (completed[0]) {
+				return;
+			}
+			completed[0] = true;
+			// our own ServiceExceptions are application errors, not overload
+			limiter.release(System.nanoTime() - start, ar.failed() && !(ar.cause() instanceof ServiceException));
+			resultHandler.handle(ar);
+			drain();
+		});
+	}
+
+	private void drain() {
+		long now = System.nanoTime();
+		while (!queue.isEmpty() && limiter.tryAcquire()) {
+			Queued next = queue.poll();
+			if (now - next.enqueued > requestTimeout) {
+				limiter.cancel();
+				expired++;
+				next.expire.run();
+			} else {
+				next.run.run();
+			}
+		}
+	}
+
+	JsonObject toJson() {
+		return limiter.toJson().put("queued", queue.size()).put("rejected", rejected).put("expired", expired);
+	}
+
+	private static class Queued {
+
+		final long enqueued;
+
+		final Runnable run;
+
+		final Runnable expire;
+
+		Queued(long enqueued, Runnable run, Runnable expire) {
+			this.enqueued = enqueued;
+			this.run = run;
+			this.expire = expire;
+		}
+	}
+}
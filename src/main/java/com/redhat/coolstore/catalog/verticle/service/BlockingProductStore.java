@@ -0,0 +1,32 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A {@link ProductStore} backend with a blocking API, such as an embedded
+ * database or a local file. Methods are called from worker or virtual threads,
+ * concurrently, and must be thread safe.
+ */
+public interface BlockingProductStore {
+
+	void open() throws Exception;
+
+	List<JsonObject> findProducts() throws Exception;
+
+	JsonObject findProduct(String id) throws Exception;
+
+	List<JsonObject> findChanges(long version, String after, int limit) throws Exception;
+
+	long latestVersion() throws Exception;
+
+	void save(JsonObject document) throws Exception;
+
+	void saveAll(Collection<JsonObject> documents) throws Exception;
+
+	void ping() throws Exception;
+
+	void close() throws Exception;
+}
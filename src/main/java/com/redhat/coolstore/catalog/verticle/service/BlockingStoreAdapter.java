@@ -0,0 +1,194 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Runs a {@link BlockingProductStore} off the event loop.
+ * <p>
+ * With `catalog.store.executor` set to `worker` (default), calls run on a
+ * dedicated worker pool of `catalog.store.worker.pool.size` threads, so a slow
+ * backend cannot starve the Vert.x worker pool. With `virtual`, each call runs
+ * on its own virtual thread when the JVM supports them (JDK 21+), and falls
+ * back to the worker pool otherwise. Either way the results are delivered on
+ * the context of the caller. The number of concurrent calls is bounded by the
+ * admission control of the service.
+ */
+class BlockingStoreAdapter implements ProductStore {
+
+	@FunctionalInterface
+	interface BlockingCall<T> {
+		T call() throws Exception;
+	}
+
+	private final Vertx vertx;
+
+	private final BlockingProductStore store;
+
+	// one of the two is set
+	private final WorkerExecutor worker;
+	private final ExecutorService virtualThreads;
+
+	private final int poolSize;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final AtomicLong calls = new AtomicLong();
+
+	BlockingStoreAdapter(Vertx vertx, BlockingProductStore store, JsonObject config) {
+		this.vertx = vertx;
+		this.store = store;
+		this.poolSize = config.getInteger("catalog.store.worker.pool.size", 20);
+		ExecutorService virtual = null;
+		if ("virtual".equals(config.getString("catalog.store.executor", "worker"))) {
+			virtual = newVirtualThreadExecutor();
+			if (virtual == null) {
+				System.out.println("Virtual threads are not supported by this JVM, using a worker pool for the store");
+			}
+		}
+		this.virtualThreads = virtual;
+		this.worker = virtual != null ? null
+				: vertx.createSharedWorkerExecutor("catalog-store", poolSize,
+						TimeUnit.MILLISECONDS.toNanos(config.getLong("catalog.store.max.execute.time", 60000L)));
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor() if available: the build
+	// targets Java 8
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	boolean usesVirtualThreads() {
+		return virtualThreads != null;
+	}
+
+	private <T> void run(BlockingCall<T> call, Handler<AsyncResult<T>> handler) {
+		calls.incrementAndGet();
+		inFlight.incrementAndGet();
+		Handler<AsyncResult<T>> completion = ar -> {
+			inFlight.decrementAndGet();
+			handler.handle(ar);
+		};
+		if (virtualThreads == null) {
+			worker.<T>executeBlocking(f -> {
+				try {
+					f.complete(call.call());
+				} catch (Exception e) {
+					f.fail(e);
+				}
+			}, false, completion);
+			return;
+		}
+		Context context = vertx.getOrCreateContext();
+		try {
+			virtualThreads.execute(() -> {
+				AsyncResult<T> result;
+				try {
+					result = Future.succeededFuture(call.call());
+				} catch (Throwable t) {
+					result = Future.failedFuture(t);
+				}
+				AsyncResult<T> done = result;
+				context.runOnContext(v -> completion.handle(done));
+			});
+		} catch (RejectedExecutionException e) {
+			completion.handle(Future.failedFuture(e));
+		}
+	}
+
+	@Override
+	public void open(Handler<AsyncResult<Void>> handler) {
+		run(() -> {
+			store.open();
+			return null;
+		}, handler);
+	}
+
+	@Override
+	public void findProducts(Handler<AsyncResult<List<JsonObject>>> handler) {
+		run(store::findProducts, handler);
+	}
+
+	@Override
+	public void findProduct(String id, Handler<AsyncResult<JsonObject>> handler) {
+		run(() -> store.findProduct(id), handler);
+	}
+
+	@Override
+	public void findChanges(long version, String after, int limit, Handler<AsyncResult<List<JsonObject>>> handler) {
+		run(() -> store.findChanges(version, after, limit), handler);
+	}
+
+	@Override
+	public void latestVersion(Handler<AsyncResult<Long>> handler) {
+		run(store::latestVersion, handler);
+	}
+
+	@Override
+	public void save(JsonObject document, Handler<AsyncResult<Void>> handler) {
+		run(() -> {
+			store.save(document);
+			return null;
+		}, handler);
+	}
+
+	@Override
+	public void saveAll(Collection<JsonObject> documents, Handler<AsyncResult<Void>> handler) {
+		run(() -> {
+			store.saveAll(documents);
+			return null;
+		}, handler);
+	}
+
+	@Override
+	public void ping(Handler<AsyncResult<Void>> handler) {
+		run(() -> {
+			store.ping();
+			return null;
+		}, handler);
+	}
+
+	@Override
+	public JsonObject stats() {
+		JsonObject stats = new JsonObject().put("type", store.getClass().getSimpleName())
+				.put("executor", virtualThreads != null ? "virtual" : "worker").put("inFlight", inFlight.get())
+				.put("calls", calls.get());
+		if (worker != null) {
+			stats.put("poolSize", poolSize);
+		}
+		return stats;
+	}
+
+	@Override
+	public void close(Handler<AsyncResult<Void>> handler) {
+		this.<Void>run(() -> {
+			store.close();
+			return null;
+		}, ar -> {
+			if (worker != null) {
+				worker.close();
+			} else {
+				virtualThreads.shutdown();
+			}
+			handler.handle(ar);
+		});
+	}
+}
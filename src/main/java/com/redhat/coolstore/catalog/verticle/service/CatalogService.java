@@ -8,6 +8,7 @@ import io.vertx.codegen.annotations.ProxyGen;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.mongo.MongoClient;
 
@@ -16,6 +17,15 @@ public interface CatalogService {
 
 	final static String ADDRESS = "catalog-service";
 
+	// Product writes are published to this address. The message body is the
+	// `Product` (deletes only carry the itemId), the "action" header is either
+	// "updated" or "deleted" and the "version" header holds the write version.
+	final static String CHANGES_ADDRESS = "catalog-service.changes";
+
+	// The manifest of each new set of export files is published to this address
+	// (see `catalog.export.*`).
+	final static String EXPORTS_ADDRESS = "catalog-service.exports";
+
 	static CatalogService create(Vertx vertx, JsonObject config, MongoClient client) {
 		return new CatalogServiceImpl(vertx, config, client);
 	}
@@ -33,12 +43,42 @@ public interface CatalogService {
 		return new CatalogServiceVertxEBProxy(vertx, ADDRESS);
 	}
 
+	// A proxy whose calls fail after `timeout` milliseconds without a reply.
+	// Use the same "catalog.request.timeout" value as the service, which drops
+	// queued calls older than that.
+	static CatalogService createProxyWithTimeout(Vertx vertx, long timeout) {
+		return new CatalogServiceVertxEBProxy(vertx, ADDRESS, new DeliveryOptions().setSendTimeout(timeout));
+	}
+
 	void getProducts(Handler<AsyncResult<List<Product>>> resulthandler);
 
 	void getProduct(String itemId, Handler<AsyncResult<Product>> resulthandler);
 
+	// The products priced between `minPrice` and `maxPrice` included, at most
+	// `limit` of them, cheapest first or, if `descending`, most expensive first.
+	void getProductsByPrice(double minPrice, double maxPrice, int limit, boolean descending,
+			Handler<AsyncResult<List<Product>>> resulthandler);
+
 	void addProduct(Product product, Handler<AsyncResult<String>> resulthandler);
 
+	void deleteProduct(String itemId, Handler<AsyncResult<Void>> resulthandler);
+
+	// ----
+	// Incremental sync. Returns the products written or deleted after the `since`
+	// continuation token (null for a full sync), at most `limit` of them:
+	//
+	// {
+	// "updated" : [ { product }, ... ],
+	// "deleted" : [ "itemId", ... ],
+	// "next" : "<token to pass as `since` on the next call>",
+	// "more" : true|false
+	// }
+	// ----
+	void getProductChanges(String since, int limit, Handler<AsyncResult<JsonObject>> resulthandler);
+
+	// Operational statistics: admission limits, write-behind backlog...
+	void getStats(Handler<AsyncResult<JsonObject>> resulthandler);
+
 	void ping(Handler<AsyncResult<String>> resultHandler);
 
 }
@@ -1,24 +1,178 @@
 package com.redhat.coolstore.catalog.verticle.service;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import com.redhat.coolstore.catalog.model.Product;
+import com.redhat.coolstore.catalog.model.ProductCodec;
 
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
 import io.vertx.ext.mongo.MongoClient;
+import io.vertx.serviceproxy.ServiceException;
 
 public class CatalogServiceImpl implements CatalogService {
 
-	private MongoClient client;
+	// Every document carries the version of its last write in this field. Deleted
+	// products are kept as tombstones flagged with DELETED_FIELD so that
+	// incremental sync can report them.
+	static final String VERSION_FIELD = "_version";
+	static final String DELETED_FIELD = "_deleted";
+
+	// the methods whose database calls may use a non-primary read preference
+	static final Collection<String> READ_METHODS = Arrays.asList("getProducts", "getProduct", "getProductChanges");
+
+	private static final AtomicLong lastVersion = new AtomicLong();
+
+	private Vertx vertx;
+
+	private ProductStore store;
+
+	// null unless write-behind mode is enabled
+	private WriteBehindQueue writeBehind;
+
+	// in-flight limits on the database calls of each method
+	private final Map<String, AdmissionControl> admission = new HashMap<>();
+
+	private CircuitBreaker breaker;
+
+	// ms behind the clock before writes are reported by getProductChanges
+	private final long changesLag;
+
+	// null unless the in-memory index is enabled, shared by the service instances
+	// of this Vert.x instance
+	private StripedProductIndex index;
+
+	// the item ids by price, maintained along with the index
+	private PriceIndex prices;
+
+	private MessageConsumer<Product> changeConsumer;
+
+	// null unless the L1/L2 cache is enabled
+	private TieredProductCache cache;
 
 	public CatalogServiceImpl(Vertx vertx, JsonObject config, MongoClient client) {
-		this.client = client;
+		this(vertx, config, new MongoProductStore(new MongoPools(client, config)));
+	}
+
+	public CatalogServiceImpl(Vertx vertx, JsonObject config, ProductStore store) {
+		this.vertx = vertx;
+		this.store = store;
+		ProductCodec.register(vertx.eventBus());
+		for (String method : Arrays.asList("getProducts", "getProduct", "addProduct", "deleteProduct",
+				"getProductChanges")) {
+			admission.put(method, new AdmissionControl(config, method));
+		}
+		breaker = new CircuitBreaker(vertx, config, store::ping);
+		changesLag = config.getLong("catalog.changes.lag", 5000L);
+		if (config.getBoolean("catalog.writebehind.enabled", false)) {
+			writeBehind = new WriteBehindQueue(vertx, store, config);
+			writeBehind.flushedHandler(documents -> documents.forEach(this::publishFlushed));
+		}
+		if (config.getBoolean("catalog.index.enabled", false)) {
+			LocalMap<String, StripedProductIndex> shared = vertx.sharedData().getLocalMap("catalog-service");
+			StripedProductIndex created = new StripedProductIndex(config.getInteger("catalog.index.stripes", 64));
+			StripedProductIndex existing = shared.putIfAbsent("index", created);
+			index = existing != null ? existing : created;
+			prices = new PriceIndex();
+		} else if (config.getBoolean("catalog.cache.enabled", false)) {
+			cache = new TieredProductCache(vertx, config);
+		}
+	}
+
+	/**
+	 * Prepares the service before it is registered: replays the write-behind
+	 * journal when write-behind is enabled, loads the in-memory index or joins
+	 * the cache of the other replicas when they are enabled.
+	 */
+	public void start(Handler<AsyncResult<Void>> handler) {
+		Handler<AsyncResult<Void>> opened = ar -> {
+			if (ar.failed()) {
+				handler.handle(ar);
+			} else if (index != null) {
+				loadIndex(handler);
+			} else if (cache != null) {
+				cache.start(handler);
+			} else {
+				handler.handle(ar);
+			}
+		};
+		if (writeBehind != null) {
+			writeBehind.open(opened);
+		} else {
+			opened.handle(Future.succeededFuture());
+		}
+	}
+
+	// Applies the changes published by all service instances, then loads the
+	// products of the store: versions sort out the races between the two.
+	private void loadIndex(Handler<AsyncResult<Void>> handler) {
+		changeConsumer = vertx.eventBus().consumer(CHANGES_ADDRESS, message -> {
+			long version = Long.parseLong(message.headers().get("version"));
+			if ("deleted".equals(message.headers().get("action"))) {
+				index.remove(message.body().getItemId(), version);
+				prices.remove(message.body().getItemId(), version);
+			} else {
+				index.put(message.body(), version);
+				prices.put(message.body().getItemId(), message.body().getPrice(), version);
+			}
+		});
+		this.<List<JsonObject>>database("getProducts", h -> store.findProducts(h), res -> {
+			if (res.failed()) {
+				handler.handle(Future.failedFuture(res.cause()));
+				return;
+			}
+			index.putAll(res.result());
+			prices.putAll(res.result());
+			if (writeBehind != null) {
+				index.putAll(writeBehind.unflushed());
+				prices.putAll(writeBehind.unflushed());
+			}
+			System.out.println("Loaded " + index.size() + " products in the index");
+			handler.handle(Future.succeededFuture());
+		});
+	}
+
+	/**
+	 * Applies the tuning settings of a configuration change: the limits of the
+	 * methods, and the sizes and TTL of the cache.
+	 */
+	public void configure(JsonObject config) {
+		admission.values().forEach(control -> control.configure(config));
+		if (cache != null) {
+			cache.configure(config);
+		}
+	}
+
+	/**
+	 * Flushes pending write-behind writes.
+	 */
+	public void stop(Handler<AsyncResult<Void>> handler) {
+		if (changeConsumer != null) {
+			changeConsumer.unregister();
+		}
+		if (cache != null) {
+			cache.stop();
+		}
+		if (writeBehind != null) {
+			writeBehind.close(handler);
+		} else {
+			handler.handle(Future.succeededFuture());
+		}
 	}
 
 	@Override
@@ -34,15 +188,26 @@ public class CatalogServiceImpl implements CatalogService {
 		// Use a Future to set the result on the handle() method of the result handler
 		// Don't forget to handle failures!
 		// ----
-		client.find("products", new JsonObject(), res -> {
+		if (index != null) {
+			resulthandler.handle(Future.succeededFuture(index.values()));
+			return;
+		}
+		Handler<Handler<AsyncResult<List<JsonObject>>>> load = h -> this.<List<JsonObject>>database("getProducts",
+				store::findProducts, h);
+		Handler<AsyncResult<List<JsonObject>>> loaded = res -> {
 			if (res.succeeded()) {
-				resulthandler.handle(Future
-						.succeededFuture(res.result().stream().map(m -> new Product(m)).collect(Collectors.toList())));
+				resulthandler.handle(Future.succeededFuture(withUnflushed(res.result()).stream().map(m -> new Product(m))
+						.collect(Collectors.toList())));
 			} else {
 				resulthandler.handle(Future.failedFuture(res.cause()));
 				res.cause().printStackTrace();
 			}
-		});
+		};
+		if (cache != null) {
+			cache.getProducts(load, loaded);
+		} else {
+			load.handle(loaded);
+		}
 	}
 
 	@Override
@@ -60,21 +225,174 @@ public class CatalogServiceImpl implements CatalogService {
 		// Use a Future to set the result on the handle() method of the result handler
 		// Don't forget to handle failures!
 		// ----
+		if (writeBehind != null) {
+			JsonObject unflushed = writeBehind.get(itemId);
+			if (unflushed != null) {
+				resulthandler.handle(Future
+						.succeededFuture(unflushed.getBoolean(DELETED_FIELD, false) ? null : new Product(unflushed)));
+				return;
+			}
+		}
 
-		client.find("products", new JsonObject().put("_id", itemId), res -> {
+		if (index != null) {
+			resulthandler.handle(Future.succeededFuture(index.get(itemId)));
+			return;
+		}
+		Handler<Handler<AsyncResult<JsonObject>>> load = h -> this.<JsonObject>database("getProduct",
+				l -> store.findProduct(itemId, l), h);
+		Handler<AsyncResult<JsonObject>> loaded = res -> {
 			if (res.succeeded()) {
-				resulthandler.handle(Future.succeededFuture(res.result().size() == 0 ? null
-						: res.result().stream().map(m -> new Product(m)).collect(Collectors.toList()).get(0)));
+				resulthandler.handle(Future.succeededFuture(res.result() == null ? null : new Product(res.result())));
 			} else {
 				resulthandler.handle(Future.failedFuture(res.cause()));
 				res.cause().printStackTrace();
 			}
-		});
+		};
+		if (cache != null) {
+			cache.getProduct(itemId, load, loaded);
+		} else {
+			load.handle(loaded);
+		}
+	}
+
+	@Override
+	public void getProductsByPrice(double minPrice, double maxPrice, int limit, boolean descending,
+			Handler<AsyncResult<List<Product>>> resulthandler) {
+		if (limit <= 0 || minPrice > maxPrice) {
+			resulthandler.handle(ServiceException.fail(400, "Invalid price range or limit"));
+			return;
+		}
+		if (index != null) {
+			resulthandler.handle(Future.succeededFuture(prices.range(minPrice, maxPrice, limit, descending).stream()
+					.map(index::get).filter(p -> p != null).collect(Collectors.toList())));
+			return;
+		}
+		// without the index, the whole catalog is filtered and sorted
+		Comparator<Product> byPrice = Comparator.comparingDouble(Product::getPrice)
+				.thenComparing(Product::getItemId);
+		getProducts(res -> resulthandler.handle(res.map(products -> products.stream()
+				.filter(p -> p.getPrice() >= minPrice && p.getPrice() <= maxPrice)
+				.sorted(descending ? byPrice.reversed() : byPrice).limit(limit).collect(Collectors.toList()))));
 	}
 
 	@Override
 	public void addProduct(Product product, Handler<AsyncResult<String>> resulthandler) {
-		client.save("products", toDocument(product), resulthandler);
+		JsonObject document = toDocument(product);
+		if (writeBehind != null) {
+			// acknowledged once journaled, written to Mongo by the next flush, which
+			// stamps the version stored and publishes the change
+			admission.get("addProduct").<Void>execute(h -> writeBehind.add(document, h), res -> {
+				if (res.succeeded()) {
+					applyChange("updated", product, document.getLong(VERSION_FIELD));
+					resulthandler.handle(Future.succeededFuture());
+				} else {
+					resulthandler.handle(Future.failedFuture(res.cause()));
+				}
+			});
+			return;
+		}
+		this.<Void>database("addProduct", h -> store.save(document, h), res -> {
+			if (res.succeeded()) {
+				publishChange("updated", product, document.getLong(VERSION_FIELD));
+			}
+			resulthandler.handle(res.map((String) null));
+		});
+	}
+
+	@Override
+	public void deleteProduct(String itemId, Handler<AsyncResult<Void>> resulthandler) {
+		JsonObject tombstone = new JsonObject().put("_id", itemId).put("itemId", itemId).put(DELETED_FIELD, true)
+				.put(VERSION_FIELD, nextVersion());
+		Product deleted = new Product();
+		deleted.setItemId(itemId);
+		if (writeBehind != null) {
+			admission.get("deleteProduct").<Void>execute(h -> writeBehind.add(tombstone, h), res -> {
+				if (res.succeeded()) {
+					applyChange("deleted", deleted, tombstone.getLong(VERSION_FIELD));
+				}
+				resulthandler.handle(res);
+			});
+			return;
+		}
+		Handler<AsyncResult<Void>> written = res -> {
+			if (res.succeeded()) {
+				publishChange("deleted", deleted, tombstone.getLong(VERSION_FIELD));
+				resulthandler.handle(Future.succeededFuture());
+			} else {
+				resulthandler.handle(Future.failedFuture(res.cause()));
+			}
+		};
+		this.<Void>database("deleteProduct", h -> store.save(tombstone, h), written);
+	}
+
+	@Override
+	public void getProductChanges(String since, int limit, Handler<AsyncResult<JsonObject>> resulthandler) {
+		long version;
+		String after;
+		try {
+			int sep = since == null ? -1 : since.indexOf(':');
+			version = since == null || since.isEmpty() ? 0 : Long.parseLong(sep < 0 ? since : since.substring(0, sep));
+			after = sep < 0 ? "" : since.substring(sep + 1);
+		} catch (NumberFormatException e) {
+			resulthandler.handle(ServiceException.fail(400, "Invalid change token: " + since));
+			return;
+		}
+
+		// (version, _id) is strictly increasing over the collection, so the last
+		// document of a page is a complete continuation token. One more document
+		// than asked tells whether there are more.
+		// Versions are stamped before the save, from the clock of each instance:
+		// a save completing late, or an instance with a slower clock, can still
+		// store a version lower than the last one read. Only the writes older
+		// than the lag are reported, so that the token never passes them.
+		long horizon = System.currentTimeMillis() - changesLag;
+		this.<List<JsonObject>>database("getProductChanges", h -> store.findChanges(version, after, limit + 1, h),
+				res -> {
+			if (res.failed()) {
+				resulthandler.handle(Future.failedFuture(res.cause()));
+				res.cause().printStackTrace();
+				return;
+			}
+			List<JsonObject> documents = res.result();
+			int settled = 0;
+			while (settled < documents.size() && documents.get(settled).getLong(VERSION_FIELD, 0L) <= horizon) {
+				settled++;
+			}
+			boolean more = settled > limit;
+			documents = documents.subList(0, Math.min(settled, limit));
+			JsonArray updated = new JsonArray();
+			JsonArray deleted = new JsonArray();
+			String next = since == null ? "0" : since;
+			for (JsonObject document : documents) {
+				if (document.getBoolean(DELETED_FIELD, false)) {
+					deleted.add(document.getString("_id"));
+				} else {
+					updated.add(new Product(document).toJson());
+				}
+				next = document.getLong(VERSION_FIELD, 0L) + ":" + document.getString("_id");
+			}
+			resulthandler.handle(Future.succeededFuture(new JsonObject().put("updated", updated).put("deleted", deleted)
+					.put("next", next).put("more", more)));
+		});
+	}
+
+	@Override
+	public void getStats(Handler<AsyncResult<JsonObject>> resulthandler) {
+		JsonObject limits = new JsonObject();
+		admission.forEach((method, control) -> limits.put(method, control.toJson()));
+		JsonObject stats = new JsonObject().put("limits", limits).put("breaker", breaker.toJson())
+				.put("store", store.stats());
+		if (writeBehind != null) {
+			stats.put("writeBehind", new JsonObject().put("pending", writeBehind.size()));
+		}
+		if (index != null) {
+			stats.put("index", new JsonObject().put("stripes", index.stripes()).put("products", index.size())
+					.put("prices", prices.size()));
+		}
+		if (cache != null) {
+			stats.put("cache", cache.toJson());
+		}
+		resulthandler.handle(Future.succeededFuture(stats));
 	}
 
 	@Override
@@ -85,6 +403,70 @@ public class CatalogServiceImpl implements CatalogService {
 	private JsonObject toDocument(Product product) {
 		JsonObject document = product.toJson();
 		document.put("_id", product.getItemId());
+		document.put(VERSION_FIELD, nextVersion());
 		return document;
 	}
+
+	// Runs a store call of `method` through the circuit breaker and the
+	// admission control of the method. Calls fail fast while the circuit is open.
+	private <T> void database(String method, Handler<Handler<AsyncResult<T>>> call,
+			Handler<AsyncResult<T>> resultHandler) {
+		if (breaker.isOpen()) {
+			resultHandler.handle(ServiceException.fail(503, "Database unavailable, circuit open"));
+			return;
+		}
+		admission.get(method).execute(h -> breaker.execute(call, h), resultHandler);
+	}
+
+	// Overlays the write-behind documents that may not be in Mongo yet on a
+	// query result, dropping deleted products.
+	private List<JsonObject> withUnflushed(List<JsonObject> documents) {
+		if (writeBehind == null || writeBehind.size() == 0) {
+			return documents;
+		}
+		Map<String, JsonObject> merged = new LinkedHashMap<>();
+		documents.forEach(d -> merged.put(d.getString("_id"), d));
+		writeBehind.unflushed().forEach(d -> merged.put(d.getString("_id"), d));
+		return merged.values().stream().filter(d -> !d.getBoolean(DELETED_FIELD, false)).collect(Collectors.toList());
+	}
+
+	private void publishChange(String action, Product product, long version) {
+		// this instance reads its own writes right away, the others when the change
+		// is delivered
+		applyChange(action, product, version);
+		DeliveryOptions options = new DeliveryOptions().addHeader("action", action).addHeader("version",
+				Long.toString(version));
+		vertx.eventBus().publish(CHANGES_ADDRESS, product, options);
+	}
+
+	// Publishes the writes of a write-behind flush with the version they were
+	// stored with.
+	private void publishFlushed(JsonObject document) {
+		if (document.getBoolean(DELETED_FIELD, false)) {
+			Product deleted = new Product();
+			deleted.setItemId(document.getString("_id"));
+			publishChange("deleted", deleted, document.getLong(VERSION_FIELD));
+		} else {
+			publishChange("updated", new Product(document), document.getLong(VERSION_FIELD));
+		}
+	}
+
+	// Updates the in-memory index of this instance, if enabled.
+	private void applyChange(String action, Product product, long version) {
+		if (index != null) {
+			if ("deleted".equals(action)) {
+				index.remove(product.getItemId(), version);
+				prices.remove(product.getItemId(), version);
+			} else {
+				index.put(product, version);
+				prices.put(product.getItemId(), product.getPrice(), version);
+			}
+		}
+	}
+
+	// Versions are millisecond timestamps, bumped when needed so that they
+	// strictly increase within this process.
+	static long nextVersion() {
+		return lastVersion.updateAndGet(last -> Math.max(System.currentTimeMillis(), last + 1));
+	}
 }
@@ -2,35 +2,98 @@ package com.redhat.coolstore.catalog.verticle.service;
 
 import java.util.Optional;
 
+import com.redhat.coolstore.catalog.verticle.ConfigChanges;
+import com.redhat.coolstore.catalog.verticle.StartupTimer;
+
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
-import io.vertx.ext.mongo.MongoClient;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
 import io.vertx.serviceproxy.ProxyHelper;
 
 public class CatalogVerticle extends AbstractVerticle {
 
-	private MongoClient client;
+	private ProductStore store;
+
+	private CatalogServiceImpl service;
+
+	// null unless the export files are enabled
+	private ProductExporter exporter;
+
+	private MessageConsumer<JsonObject> configConsumer;
 
 	@Override
 	public void start(Future<Void> startFuture) throws Exception {
 
-		client = MongoClient.createShared(vertx, config());
+		// Mongo, or a blocking backend, see `catalog.store.*`
+		store = ProductStore.create(vertx, config());
 
 		// ----
 		// * Create an instance of `CatalogService`.
 		// * Register the service on the event bus
 		// * Complete the future
 		// ----
-		vertx.setTimer(2000, tid -> {
-			CatalogService service = CatalogService.create(vertx, config(), client);
-			ProxyHelper.registerService(CatalogService.class, vertx, service, CatalogService.ADDRESS);
-			startFuture.complete();
+		// gives the database time to come up when deployed along with it
+		long delay = config().getLong("catalog.start.delay", 2000L);
+		Handler<Long> open = tid -> store.open(opened -> {
+			if (opened.failed()) {
+				startFuture.fail(opened.cause());
+				return;
+			}
+			StartupTimer.mark("store");
+			service = new CatalogServiceImpl(vertx, config(), store);
+			service.start(ar -> {
+				if (ar.succeeded()) {
+					ProxyHelper.registerService(CatalogService.class, vertx, service, CatalogService.ADDRESS);
+					StartupTimer.mark("service");
+					configConsumer = vertx.eventBus().consumer(ConfigChanges.ADDRESS,
+							message -> service.configure(message.body()));
+					if (config().getBoolean("catalog.export.enabled", false)) {
+						exporter = new ProductExporter(vertx, config(), store);
+						exporter.start();
+					}
+					startFuture.complete();
+					// the Mongo client connects lazily
+					store.ping(pinged -> {
+						if (pinged.succeeded()) {
+							StartupTimer.mark("database");
+						}
+					});
+				} else {
+					startFuture.fail(ar.cause());
+				}
+			});
 		});
+		if (delay > 0) {
+			vertx.setTimer(delay, open);
+		} else {
+			open.handle(null);
+		}
 	}
 
 	@Override
-	public void stop() throws Exception {
-		Optional.ofNullable(client).ifPresent(c -> c.close());
+	public void stop(Future<Void> stopFuture) throws Exception {
+		if (service == null) {
+			Optional.ofNullable(store).ifPresent(s -> s.close(ar -> {
+				if (ar.failed()) {
+					System.out.println("Failed to close the product store: " + ar.cause().getMessage());
+				}
+			}));
+			stopFuture.complete();
+			return;
+		}
+		if (exporter != null) {
+			exporter.stop();
+		}
+		configConsumer.unregister();
+		// let pending write-behind writes reach the store before closing it
+		service.stop(ar -> {
+			if (ar.failed()) {
+				System.out.println("Failed to flush pending product writes: " + ar.cause().getMessage());
+			}
+			store.close(closed -> stopFuture.complete());
+		});
 	}
 
 }
@@ -0,0 +1,185 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceException;
+
+/**
+ * Circuit breaker for database calls.
+ * <p>
+ * The outcome of the last `window.size` calls is recorded. Once at least
+ * `minimum.calls` have been recorded, the circuit opens when the share of
+ * failed calls reaches `failure.rate` percent, or the share of calls slower
+ * than `slow.call.duration` ms reaches `slow.call.rate` percent. A call
+ * without a result after `call.timeout` ms (`catalog.request.timeout` by
+ * default) fails with a 503 and counts as failed, so that a database that
+ * hangs opens the circuit too. While open, calls fail immediately with a 503
+ * {@link ServiceException}, and a probe is run every `probe.interval` ms,
+ * unless the previous one is still pending; the first probe that succeeds in
+ * time closes the circuit.
+ * <p>
+ * Not thread safe: a breaker belongs to the event loop of its service.
+ */
+class CircuitBreaker {
+
+	private static final byte SUCCESS = 0;
+	private static final byte FAILURE = 1;
+	private static final byte SLOW = 2;
+
+	private final Vertx vertx;
+
+	private final Handler<Handler<AsyncResult<Void>>> probe;
+
+	private final int failureRate;
+
+	private final int slowCallRate;
+
+	private final long slowCallDuration;
+
+	private final int minimumCalls;
+
+	private final long probeInterval;
+
+	private final long callTimeout;
+
+	// ring buffer of call outcomes
+	private final byte[] window;
+	private int next;
+	private int calls;
+	private int failures;
+	private int slowCalls;
+
+	private boolean open;
+
+	private long openedAt;
+
+	private long probeTimer = -1;
+
+	private boolean probing;
+
+	private long opened;
+
+	CircuitBreaker(Vertx vertx, JsonObject config, Handler<Handler<AsyncResult<Void>>> probe) {
+		this.vertx = vertx;
+		this.probe = probe;
+		this.window = new byte[config.getInteger("catalog.breaker.window.size", 100)];
+		this.minimumCalls = config.getInteger("catalog.breaker.minimum.calls", 20);
+		this.failureRate = config.getInteger("catalog.breaker.failure.rate", 50);
+		this.slowCallRate = config.getInteger("catalog.breaker.slow.call.rate", 80);
+		this.slowCallDuration = TimeUnit.MILLISECONDS
+				.toNanos(config.getLong("catalog.breaker.slow.call.duration", 1000L));
+		this.probeInterval = config.getLong("catalog.breaker.probe.interval", 2000L);
+		this.callTimeout = config.getLong("catalog.breaker.call.timeout",
+				config.getLong("catalog.request.timeout", 5000L));
+	}
+
+	boolean isOpen() {
+		return open;
+	}
+
+	<T> void execute(Handler<Handler<AsyncResult<T>>> call, Handler<AsyncResult<T>> resultHandler) {
+		if (open) {
+			resultHandler.handle(ServiceException.fail(503, "Database unavailable, circuit open"));
+			return;
+		}
+		long start = System.nanoTime();
+		withTimeout(call, ar -> {
+			record(ar.failed(), System.nanoTime() - start);
+			resultHandler.handle(ar);
+		});
+	}
+
+	// Runs `call`, failing it after the call timeout; a result arriving later is
+	// ignored
+	private <T> void withTimeout(Handler<Handler<AsyncResult<T>>> call, Handler<AsyncResult<T>> handler) {
+		boolean[] done = { false };
+		long timer = vertx.setTimer(callTimeout, tid -> {
+			if (!done[0]) {
+				done[0] = true;
+				handler.handle(ServiceException.fail(503, "Database call timed out after " + callTimeout + " ms"));
+			}
+		});
+		call.handle(ar -> {
+			if (!done[0]) {
+				done[0] = true;
+				vertx.cancelTimer(timer);
+				handler.handle(ar);
+			}
+		});
+	}
+
+	private void record(boolean failed, long duration) {
+		if (open) {
+			// a call started before the circuit opened
+			return;
+		}
+		byte outcome = failed ? FAILURE : duration > slowCallDuration ? SLOW : SUCCESS;
+		if (calls == window.length) {
+			forget(window[next]);
+		} else {
+			calls++;
+		}
+		window[next] = outcome;
+		next = (next + 1) % window.length;
+		if (outcome == FAILURE) {
+			failures++;
+		} else if (outcome == SLOW) {
+			slowCalls++;
+		}
+
+		if (calls >= minimumCalls
+				&& (failures * 100 >= failureRate * calls || slowCalls * 100 >= slowCallRate * calls)) {
+			trip();
+		}
+	}
+
+	private void forget(byte outcome) {
+		if (outcome == FAILURE) {
+			failures--;
+		} else if (outcome == SLOW) {
+			slowCalls--;
+		}
+	}
+
+	private void trip() {
+		System.out.println("Opening the database circuit: " + failures + " failed and " + slowCalls + " slow calls out of "
+				+ calls);
+		open = true;
+		opened++;
+		openedAt = System.currentTimeMillis();
+		probeTimer = vertx.setPeriodic(probeInterval, tid -> runProbe());
+	}
+
+	private void runProbe() {
+		if (probing) {
+			return;
+		}
+		probing = true;
+		long start = System.nanoTime();
+		withTimeout(probe, ar -> {
+			probing = false;
+			if (open && ar.succeeded() && System.nanoTime() - start <= slowCallDuration) {
+				close();
+			}
+		});
+	}
+
+	private void close() {
+		System.out.println("Closing the database circuit after " + (System.currentTimeMillis() - openedAt) + " ms");
+		vertx.cancelTimer(probeTimer);
+		open = false;
+		calls = 0;
+		next = 0;
+		failures = 0;
+		slowCalls = 0;
+	}
+
+	JsonObject toJson() {
+		return new JsonObject().put("state", open ? "open" : "closed").put("calls", calls).put("failures", failures)
+				.put("slowCalls", slowCalls).put("opened", opened);
+	}
+}
@@ -0,0 +1,129 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Adaptive limit on the number of requests in flight (AIMD).
+ * <p>
+ * Each completed request is a sample. A request that failed or took longer
+ * than the latency threshold is taken as a sign of overload and shrinks the
+ * limit multiplicatively. A fast request completed while the limiter was
+ * nearly saturated grows the limit additively, by about one per window of
+ * `limit` requests. The limit stays between its configured bounds, which can
+ * be changed while requests are in flight (see {@link #configure}).
+ * <p>
+ * Not thread safe: a limiter belongs to the event loop of its verticle.
+ */
+public class ConcurrencyLimiter {
+
+	private int minLimit;
+
+	private int maxLimit;
+
+	private long latencyThreshold;
+
+	private final double backoffRatio;
+
+	private double limit;
+
+	private int inFlight;
+
+	/**
+	 * Reads the limiter settings from `config`. For each setting, the key
+	 * `prefix + "." + name + "." + setting` takes precedence over
+	 * `prefix + "." + setting`, so that limits can be set per method.
+	 */
+	public static ConcurrencyLimiter create(JsonObject config, String prefix, String name) {
+		return new ConcurrencyLimiter(setting(config, prefix, name, "initial", 20),
+				setting(config, prefix, name, "min", 1), setting(config, prefix, name, "max", 200),
+				setting(config, prefix, name, "latency.threshold", 250));
+	}
+
+	/**
+	 * Applies the bounds and latency threshold of `config`, read as in
+	 * {@link #create}. The current limit is kept within the new bounds: a lower
+	 * limit lets the requests in flight complete, and only holds back new ones.
+	 */
+	public void configure(JsonObject config, String prefix, String name) {
+		configure(setting(config, prefix, name, "min", 1), setting(config, prefix, name, "max", 200),
+				setting(config, prefix, name, "latency.threshold", 250));
+	}
+
+	/**
+	 * @param latencyThreshold
+	 *            in milliseconds
+	 */
+	public void configure(int minLimit, int maxLimit, long latencyThreshold) {
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.latencyThreshold = TimeUnit.MILLISECONDS.toNanos(latencyThreshold);
+		this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, limit));
+	}
+
+	static int setting(JsonObject config, String prefix, String name, String setting, int defaultValue) {
+		return config.getInteger(prefix + "." + name + "." + setting,
+				config.getInteger(prefix + "." + setting, defaultValue));
+	}
+
+	/**
+	 * @param latencyThreshold
+	 *            in milliseconds
+	 */
+	public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyThreshold) {
+		this.backoffRatio = 0.9;
+		this.limit = initialLimit;
+		configure(minLimit, maxLimit, latencyThreshold);
+	}
+
+	/**
+	 * Takes a permit if the limit allows it. A successful call must be followed
+	 * by {@link #release(long, boolean)} or {@link #cancel()}.
+	 */
+	public boolean tryAcquire() {
+		if (inFlight >= (int) limit) {
+			return false;
+		}
+		inFlight++;
+		return true;
+	}
+
+	/**
+	 * Returns a permit and records the outcome of the request.
+	 *
+	 * @param latency
+	 *            in nanoseconds
+	 * @param overloaded
+	 *            true if the request failed in a way that points to overload
+	 */
+	public void release(long latency, boolean overloaded) {
+		boolean saturated = inFlight * 2 >= limit;
+		inFlight--;
+		if (overloaded || latency > latencyThreshold) {
+			limit = Math.max(minLimit, limit * backoffRatio);
+		} else if (saturated) {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+
+	/**
+	 * Returns a permit without recording a sample.
+	 */
+	public void cancel() {
+		inFlight--;
+	}
+
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	public JsonObject toJson() {
+		return new JsonObject().put("limit", getLimit()).put("inFlight", inFlight).put("minLimit", minLimit)
+				.put("maxLimit", maxLimit);
+	}
+}
@@ -0,0 +1,259 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static com.redhat.coolstore.catalog.verticle.service.CatalogServiceImpl.DELETED_FIELD;
+import static com.redhat.coolstore.catalog.verticle.service.CatalogServiceImpl.VERSION_FIELD;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Product documents in a local file, for deployments without Mongo.
+ * <p>
+ * All documents are held in memory. Writes are appended as JSON lines to the
+ * file at `catalog.store.file.path` and, unless `catalog.store.file.sync` is
+ * false, forced to disk before they return; a failed write is truncated off the
+ * file. The file is replayed when the store is opened, skipping corrupt lines,
+ * and compacted to one line per document: on open when it has grown past twice
+ * the number of documents, and while running when it reaches twice its size
+ * after the last compaction, and at least `catalog.store.file.compact.min.size`
+ * bytes.
+ */
+class FileProductStore implements BlockingProductStore {
+
+	// (_version, _id) order of the change feed, missing versions first
+	private static final Comparator<JsonObject> CHANGE_ORDER = Comparator
+			.<JsonObject>comparingLong(d -> d.getLong(VERSION_FIELD, 0L)).thenComparing(d -> d.getString("_id"));
+
+	private final Path path;
+
+	private final boolean sync;
+
+	private final long compactMinSize;
+
+	// the size of the file, and the size that triggers the next compaction
+	private long size;
+	private long compactAt;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final Map<String, JsonObject> documents = new LinkedHashMap<>();
+
+	private final NavigableSet<JsonObject> changes = new TreeSet<>(CHANGE_ORDER);
+
+	private FileChannel log;
+
+	FileProductStore(JsonObject config) {
+		this.path = Paths.get(config.getString("catalog.store.file.path", "catalog-products.jsonl"));
+		this.sync = config.getBoolean("catalog.store.file.sync", true);
+		this.compactMinSize = config.getLong("catalog.store.file.compact.min.size", 16L * 1024 * 1024);
+	}
+
+	@Override
+	public void open() throws IOException {
+		lock.writeLock().lock();
+		try {
+			int lines = 0;
+			boolean torn = false;
+			boolean corrupt = false;
+			if (Files.exists(path)) {
+				String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+				String[] entries = content.split("\n");
+				// a torn last line is a write that never returned
+				torn = !content.isEmpty() && !content.endsWith("\n");
+				for (int i = 0; i < (torn ? entries.length - 1 : entries.length); i++) {
+					if (entries[i].isEmpty()) {
+						continue;
+					}
+					try {
+						put(new JsonObject(entries[i]));
+						lines++;
+					} catch (DecodeException e) {
+						// a failed append that could not be truncated, joined with the next one
+						System.out.println("Skipping corrupt line " + (i + 1) + " of " + path + ": " + e.getMessage());
+						corrupt = true;
+					}
+				}
+			}
+			if (torn || corrupt || lines > 2 * documents.size()) {
+				compact();
+			}
+			openLog();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public List<JsonObject> findProducts() {
+		lock.readLock().lock();
+		try {
+			List<JsonObject> products = new ArrayList<>(documents.size());
+			for (JsonObject document : documents.values()) {
+				if (!document.getBoolean(DELETED_FIELD, false)) {
+					products.add(document.copy());
+				}
+			}
+			return products;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public JsonObject findProduct(String id) {
+		lock.readLock().lock();
+		try {
+			JsonObject document = documents.get(id);
+			return document == null || document.getBoolean(DELETED_FIELD, false) ? null : document.copy();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<JsonObject> findChanges(long version, String after, int limit) {
+		JsonObject from = new JsonObject().put(VERSION_FIELD, version).put("_id", after);
+		lock.readLock().lock();
+		try {
+			List<JsonObject> page = new ArrayList<>(Math.min(limit, changes.size()));
+			for (JsonObject document : changes.tailSet(from, false)) {
+				if (page.size() == limit) {
+					break;
+				}
+				page.add(document.copy());
+			}
+			return page;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long latestVersion() {
+		lock.readLock().lock();
+		try {
+			return changes.isEmpty() ? 0 : changes.last().getLong(VERSION_FIELD, 0L);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void save(JsonObject document) throws IOException {
+		saveAll(Collections.singletonList(document));
+	}
+
+	@Override
+	public void saveAll(Collection<JsonObject> batch) throws IOException {
+		StringBuilder lines = new StringBuilder();
+		for (JsonObject document : batch) {
+			lines.append(document.encode()).append('\n');
+		}
+		ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+		lock.writeLock().lock();
+		try {
+			try {
+				while (bytes.hasRemaining()) {
+					log.write(bytes);
+				}
+				if (sync) {
+					log.force(false);
+				}
+			} catch (IOException e) {
+				// cut a partial batch off, so that the next append starts a new line
+				try {
+					log.truncate(size);
+				} catch (IOException t) {
+					System.out.println("Failed to truncate " + path + " after a failed write: " + t.getMessage());
+				}
+				throw e;
+			}
+			batch.forEach(d -> put(d.copy()));
+			size += bytes.limit();
+			if (size >= compactAt) {
+				// the batch is written already, a failed compaction leaves the file as is
+				try {
+					log.close();
+					compact();
+				} catch (IOException e) {
+					System.out.println("Failed to compact " + path + ": " + e.getMessage());
+				} finally {
+					openLog();
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void ping() throws IOException {
+		if (log == null || !log.isOpen()) {
+			throw new IOException("Store is closed: " + path);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (log != null) {
+				log.close();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void put(JsonObject document) {
+		JsonObject previous = documents.put(document.getString("_id"), document);
+		if (previous != null) {
+			changes.remove(previous);
+		}
+		changes.add(document);
+	}
+
+	private void openLog() throws IOException {
+		log = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		size = log.size();
+		compactAt = Math.max(compactMinSize, 2 * size);
+	}
+
+	// rewrites the file with the live documents, forced to disk before it is
+	// swapped in, so that a crash leaves either file whole
+	private void compact() throws IOException {
+		Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+		StringBuilder lines = new StringBuilder();
+		documents.values().forEach(d -> lines.append(d.encode()).append('\n'));
+		ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+		try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (bytes.hasRemaining()) {
+				out.write(bytes);
+			}
+			out.force(true);
+		}
+		Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,50 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring: each member is placed at `virtualNodes` points of the
+ * ring, and a key belongs to the first member point at or after its own hash.
+ * Adding or removing a member only moves the keys of its points.
+ */
+class HashRing {
+
+	private final TreeMap<Integer, String> points = new TreeMap<>();
+
+	HashRing(Collection<String> members, int virtualNodes) {
+		for (String member : members) {
+			for (int i = 0; i < virtualNodes; i++) {
+				points.put(hash(member + "#" + i), member);
+			}
+		}
+	}
+
+	/**
+	 * The member owning `key`, or null if the ring is empty.
+	 */
+	String owner(String key) {
+		if (points.isEmpty()) {
+			return null;
+		}
+		Map.Entry<Integer, String> point = points.ceilingEntry(hash(key));
+		return point != null ? point.getValue() : points.firstEntry().getValue();
+	}
+
+	// FNV-1a, with the murmur3 finalizer to spread short keys
+	static int hash(String key) {
+		int h = 0x811c9dc5;
+		for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+			h ^= b;
+			h *= 0x01000193;
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
@@ -0,0 +1,203 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+import com.mongodb.ConnectionString;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+
+/**
+ * The Mongo clients of the catalog service, one connection pool per read
+ * preference.
+ * <p>
+ * The read preference of a Mongo client is fixed when it is created, so each
+ * read preference in use gets its own shared client. Writes always use the
+ * primary pool. The read methods use the pool of
+ * `catalog.mongo.read.preference.<method>`, primary by default.
+ * <p>
+ * Pool settings are read from `catalog.mongo.*` (see
+ * {@link #clientConfig(JsonObject, String)}) and apply to every pool. Calls in
+ * flight are counted per pool against its maximum size to report utilization.
+ */
+class MongoPools {
+
+	static final String PRIMARY = "primary";
+
+	private final Map<String, Pool> pools = new LinkedHashMap<>();
+
+	private final Map<String, Pool> byMethod = new HashMap<>();
+
+	static MongoPools create(Vertx vertx, JsonObject config, Collection<String> readMethods) {
+		return new MongoPools(config, readMethods, (clientConfig, readPreference) -> PRIMARY.equals(readPreference)
+				? MongoClient.createShared(vertx, clientConfig)
+				: MongoClient.createShared(vertx, clientConfig, "catalog-" + readPreference));
+	}
+
+	/**
+	 * A single pool on `client`, for all methods.
+	 */
+	MongoPools(MongoClient client, JsonObject config) {
+		this(config, Collections.emptyList(), (clientConfig, readPreference) -> client);
+	}
+
+	/**
+	 * @param factory
+	 *            creates the client of a pool from its configuration and read
+	 *            preference
+	 */
+	MongoPools(JsonObject config, Collection<String> readMethods,
+			BiFunction<JsonObject, String, MongoClient> factory) {
+		for (String readPreference : readPreferences(config, readMethods)) {
+			JsonObject clientConfig = clientConfig(config, readPreference);
+			pools.put(readPreference, new Pool(readPreference, factory.apply(clientConfig, readPreference),
+					maxPoolSize(clientConfig)));
+		}
+		for (String method : readMethods) {
+			byMethod.put(method, pools.get(readPreference(config, method)));
+		}
+	}
+
+	private static Collection<String> readPreferences(JsonObject config, Collection<String> readMethods) {
+		Collection<String> readPreferences = new LinkedHashSet<>();
+		readPreferences.add(PRIMARY);
+		readMethods.forEach(method -> readPreferences.add(readPreference(config, method)));
+		return readPreferences;
+	}
+
+	private static String readPreference(JsonObject config, String method) {
+		return config.getString("catalog.mongo.read.preference." + method, PRIMARY);
+	}
+
+	/**
+	 * The configuration of a Mongo client: the connection settings of `config`
+	 * with the pool and socket settings of `catalog.mongo.*` translated to driver
+	 * options.
+	 * <p>
+	 * With a `connection_string`, the driver reads the pool and socket settings
+	 * from its query only, so they are added there, unless the connection string
+	 * sets them already. The read preference is always that of the pool.
+	 */
+	static JsonObject clientConfig(JsonObject config, String readPreference) {
+		Map<String, Object> options = new LinkedHashMap<>();
+		options.put("readPreference", readPreference);
+		options.put("maxPoolSize", config.getInteger("catalog.mongo.pool.max.size", 100));
+		options.put("minPoolSize", config.getInteger("catalog.mongo.pool.min.size", 0));
+		options.put("waitQueueMultiple", config.getInteger("catalog.mongo.pool.wait.queue.multiple", 500));
+		// waiting for a connection longer than the caller waits for its reply is
+		// wasted work
+		options.put("waitQueueTimeoutMS", config.getLong("catalog.mongo.pool.wait.queue.timeout",
+				config.getLong("catalog.request.timeout", 5000L)));
+		options.put("connectTimeoutMS", config.getInteger("catalog.mongo.connect.timeout", 10000));
+		options.put("socketTimeoutMS", config.getInteger("catalog.mongo.socket.timeout", 0));
+
+		JsonObject clientConfig = config.copy();
+		String connectionString = config.getString("connection_string");
+		if (connectionString == null) {
+			options.forEach(clientConfig::put);
+		} else {
+			clientConfig.put("connection_string", withOptions(connectionString, options));
+		}
+		return clientConfig;
+	}
+
+	private static String withOptions(String connectionString, Map<String, Object> options) {
+		int query = connectionString.indexOf('?');
+		StringBuilder uri = new StringBuilder(query < 0 ? connectionString : connectionString.substring(0, query));
+		// the driver needs the slash before the query, even without a database
+		if (uri.indexOf("/", uri.indexOf("://") + 3) < 0) {
+			uri.append('/');
+		}
+		// option names are case insensitive
+		Map<String, String> params = new LinkedHashMap<>();
+		if (query >= 0) {
+			for (String param : connectionString.substring(query + 1).split("[&;]")) {
+				if (!param.isEmpty()) {
+					params.put(param.split("=", 2)[0].toLowerCase(), param);
+				}
+			}
+		}
+		params.remove("readpreference");
+		options.forEach((name, value) -> params.putIfAbsent(name.toLowerCase(), name + "=" + value));
+		return uri.append('?').append(String.join("&", params.values())).toString();
+	}
+
+	/**
+	 * The maximum size of the pool the driver creates for `clientConfig`.
+	 */
+	static int maxPoolSize(JsonObject clientConfig) {
+		String connectionString = clientConfig.getString("connection_string");
+		if (connectionString != null) {
+			Integer maxSize = new ConnectionString(connectionString).getMaxConnectionPoolSize();
+			return maxSize != null ? maxSize : 100;
+		}
+		return clientConfig.getInteger("maxPoolSize", 100);
+	}
+
+	Pool primary() {
+		return pools.get(PRIMARY);
+	}
+
+	/**
+	 * The pool for the database calls of `method`.
+	 */
+	Pool get(String method) {
+		return byMethod.getOrDefault(method, primary());
+	}
+
+	void close() {
+		pools.values().forEach(pool -> pool.client.close());
+	}
+
+	JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		pools.forEach((readPreference, pool) -> json.put(readPreference, pool.toJson()));
+		return json;
+	}
+
+	static class Pool {
+
+		final String readPreference;
+
+		final MongoClient client;
+
+		private final int maxSize;
+
+		private int inFlight;
+
+		private int peak;
+
+		private long calls;
+
+		Pool(String readPreference, MongoClient client, int maxSize) {
+			this.readPreference = readPreference;
+			this.client = client;
+			this.maxSize = maxSize;
+		}
+
+		<T> void execute(BiConsumer<MongoClient, Handler<AsyncResult<T>>> call, Handler<AsyncResult<T>> resultHandler) {
+			inFlight++;
+			calls++;
+			peak = Math.max(peak, inFlight);
+			call.accept(client, ar -> {
+				inFlight--;
+				resultHandler.handle(ar);
+			});
+		}
+
+		JsonObject toJson() {
+			return new JsonObject().put("maxSize", maxSize).put("inFlight", inFlight).put("peak", peak)
+					.put("calls", calls).put("utilization", inFlight * 100 / maxSize);
+		}
+	}
+}
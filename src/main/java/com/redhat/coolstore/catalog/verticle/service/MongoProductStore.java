@@ -0,0 +1,116 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static com.redhat.coolstore.catalog.verticle.service.CatalogServiceImpl.DELETED_FIELD;
+import static com.redhat.coolstore.catalog.verticle.service.CatalogServiceImpl.VERSION_FIELD;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
+
+/**
+ * Product documents in the "products" Mongo collection. Each call runs on the
+ * pool of the {@link CatalogService} method it serves (see {@link MongoPools}).
+ */
+class MongoProductStore implements ProductStore {
+
+	private static final String COLLECTION = "products";
+
+	private static final JsonObject NOT_DELETED = new JsonObject().put(DELETED_FIELD, new JsonObject().put("$ne", true));
+
+	private final MongoPools pools;
+
+	MongoProductStore(MongoPools pools) {
+		this.pools = pools;
+	}
+
+	@Override
+	public void open(Handler<AsyncResult<Void>> handler) {
+		// Supports the incremental sync queries of `findChanges`
+		JsonObject versionIndex = new JsonObject().put(VERSION_FIELD, 1).put("_id", 1);
+		pools.primary().client.createIndex(COLLECTION, versionIndex, ar -> {
+			if (ar.failed()) {
+				System.out.println("Failed to create the products version index: " + ar.cause().getMessage());
+			}
+		});
+		handler.handle(Future.succeededFuture());
+	}
+
+	@Override
+	public void findProducts(Handler<AsyncResult<List<JsonObject>>> handler) {
+		pools.get("getProducts").execute((c, h) -> c.find(COLLECTION, NOT_DELETED.copy(), h), handler);
+	}
+
+	@Override
+	public void findProduct(String id, Handler<AsyncResult<JsonObject>> handler) {
+		JsonObject query = NOT_DELETED.copy().put("_id", id);
+		pools.get("getProduct").<List<JsonObject>>execute((c, h) -> c.find(COLLECTION, query, h),
+				res -> handler.handle(res.map(documents -> documents.isEmpty() ? null : documents.get(0))));
+	}
+
+	@Override
+	public void findChanges(long version, String after, int limit, Handler<AsyncResult<List<JsonObject>>> handler) {
+		JsonArray or = new JsonArray().add(new JsonObject().put(VERSION_FIELD, new JsonObject().put("$gt", version)))
+				.add(new JsonObject().put(VERSION_FIELD, version).put("_id", new JsonObject().put("$gt", after)));
+		if (version == 0) {
+			or.add(new JsonObject().put(VERSION_FIELD, new JsonObject().put("$exists", false)).put("_id",
+					new JsonObject().put("$gt", after)));
+		}
+		FindOptions options = new FindOptions().setLimit(limit)
+				.setSort(new JsonObject().put(VERSION_FIELD, 1).put("_id", 1));
+		JsonObject query = new JsonObject().put("$or", or);
+		pools.get("getProductChanges").execute((c, h) -> c.findWithOptions(COLLECTION, query, options, h), handler);
+	}
+
+	@Override
+	public void latestVersion(Handler<AsyncResult<Long>> handler) {
+		FindOptions options = new FindOptions().setLimit(1).setSort(new JsonObject().put(VERSION_FIELD, -1))
+				.setFields(new JsonObject().put(VERSION_FIELD, 1));
+		pools.get("getProductChanges").<List<JsonObject>>execute(
+				(c, h) -> c.findWithOptions(COLLECTION, new JsonObject(), options, h),
+				res -> handler.handle(res.map(documents -> documents.isEmpty() ? 0L
+						: documents.get(0).getLong(VERSION_FIELD, 0L))));
+	}
+
+	@Override
+	public void save(JsonObject document, Handler<AsyncResult<Void>> handler) {
+		pools.primary().<String>execute((c, h) -> c.save(COLLECTION, document, h),
+				res -> handler.handle(res.map(id -> null)));
+	}
+
+	@Override
+	public void saveAll(Collection<JsonObject> documents, Handler<AsyncResult<Void>> handler) {
+		List<BulkOperation> operations = new ArrayList<>(documents.size());
+		for (JsonObject document : documents) {
+			operations.add(BulkOperation.createReplace(new JsonObject().put("_id", document.getString("_id")), document,
+					true));
+		}
+		pools.primary().<MongoClientBulkWriteResult>execute((c, h) -> c.bulkWrite(COLLECTION, operations, h),
+				res -> handler.handle(res.map(result -> null)));
+	}
+
+	@Override
+	public void ping(Handler<AsyncResult<Void>> handler) {
+		pools.primary().<JsonObject>execute((c, h) -> c.runCommand("ping", new JsonObject().put("ping", 1), h),
+				res -> handler.handle(res.map(result -> null)));
+	}
+
+	@Override
+	public JsonObject stats() {
+		return new JsonObject().put("type", "mongo").put("pools", pools.toJson());
+	}
+
+	@Override
+	public void close(Handler<AsyncResult<Void>> handler) {
+		pools.close();
+		handler.handle(Future.succeededFuture());
+	}
+}
@@ -0,0 +1,234 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * In-memory index of the item ids by price, for price range and cheapest or
+ * most expensive N queries.
+ * <p>
+ * A skip list of nodes ordered by primitive double price, then item id, with
+ * a backward link on the bottom level: a query finds its first node in
+ * O(log n) and walks from there, forwards or backwards, for the N results.
+ * <p>
+ * Like {@link StripedProductIndex}, updates carry the version of the write and
+ * only apply if newer, and deleted products are remembered as tombstones. Not
+ * thread safe: one instance per service, used from its event loop.
+ */
+class PriceIndex {
+
+	private static final int MAX_LEVEL = 16;
+
+	private final Node head = new Node(Double.NEGATIVE_INFINITY, "", MAX_LEVEL);
+
+	private final Map<String, Entry> entries = new HashMap<>();
+
+	private int level = 1;
+
+	private int size;
+
+	/**
+	 * Sets the price of the product, unless the index holds a newer version of
+	 * it.
+	 *
+	 * @return true if the index was updated
+	 */
+	boolean put(String itemId, double price, long version) {
+		Entry previous = entries.get(itemId);
+		if (previous != null && previous.version >= version) {
+			return false;
+		}
+		if (previous != null && previous.price != null) {
+			if (previous.price == price) {
+				entries.put(itemId, new Entry(price, version));
+				return true;
+			}
+			unlink(previous.price, itemId);
+		}
+		link(price, itemId);
+		entries.put(itemId, new Entry(price, version));
+		return true;
+	}
+
+	/**
+	 * Drops the product, unless the index holds a newer version of it.
+	 *
+	 * @return true if the index was updated
+	 */
+	boolean remove(String itemId, long version) {
+		Entry previous = entries.get(itemId);
+		if (previous != null && previous.version >= version) {
+			return false;
+		}
+		if (previous != null && previous.price != null) {
+			unlink(previous.price, itemId);
+		}
+		entries.put(itemId, new Entry(null, version));
+		return true;
+	}
+
+	/**
+	 * Applies a batch of product documents (see {@link ProductStore}).
+	 */
+	void putAll(Collection<JsonObject> documents) {
+		for (JsonObject document : documents) {
+			long version = document.getLong(CatalogServiceImpl.VERSION_FIELD, 0L);
+			if (document.getBoolean(CatalogServiceImpl.DELETED_FIELD, false)) {
+				remove(document.getString("_id"), version);
+			} else {
+				put(document.getString("_id"), document.getDouble("price", 0.0), version);
+			}
+		}
+	}
+
+	/**
+	 * The item ids of the products priced between `min` and `max` included, up
+	 * to `limit`, cheapest first or, if `descending`, most expensive first.
+	 */
+	List<String> range(double min, double max, int limit, boolean descending) {
+		List<String> itemIds = new ArrayList<>();
+		if (descending) {
+			// the last node at or below max
+			Node node = floor(max);
+			while (node != head && node.price >= min && itemIds.size() < limit) {
+				itemIds.add(node.itemId);
+				node = node.previous;
+			}
+		} else {
+			Node node = ceiling(min);
+			while (node != null && node.price <= max && itemIds.size() < limit) {
+				itemIds.add(node.itemId);
+				node = node.next[0];
+			}
+		}
+		return itemIds;
+	}
+
+	int size() {
+		return size;
+	}
+
+	// the first node priced at or above `price`
+	private Node ceiling(double price) {
+		Node node = head;
+		for (int i = level - 1; i >= 0; i--) {
+			while (node.next[i] != null && node.next[i].price < price) {
+				node = node.next[i];
+			}
+		}
+		return node.next[0];
+	}
+
+	// the last node priced at or below `price`, or the head
+	private Node floor(double price) {
+		Node node = head;
+		for (int i = level - 1; i >= 0; i--) {
+			while (node.next[i] != null && node.next[i].price <= price) {
+				node = node.next[i];
+			}
+		}
+		return node;
+	}
+
+	// fills `update` with the last node before (price, itemId) on each level
+	private Node[] predecessors(double price, String itemId) {
+		Node[] update = new Node[MAX_LEVEL];
+		Node node = head;
+		for (int i = level - 1; i >= 0; i--) {
+			while (node.next[i] != null && compare(node.next[i], price, itemId) < 0) {
+				node = node.next[i];
+			}
+			update[i] = node;
+		}
+		return update;
+	}
+
+	private void link(double price, String itemId) {
+		Node[] update = predecessors(price, itemId);
+		int nodeLevel = randomLevel();
+		if (nodeLevel > level) {
+			for (int i = level; i < nodeLevel; i++) {
+				update[i] = head;
+			}
+			level = nodeLevel;
+		}
+		Node node = new Node(price, itemId, nodeLevel);
+		for (int i = 0; i < nodeLevel; i++) {
+			node.next[i] = update[i].next[i];
+			update[i].next[i] = node;
+		}
+		node.previous = update[0];
+		if (node.next[0] != null) {
+			node.next[0].previous = node;
+		}
+		size++;
+	}
+
+	private void unlink(double price, String itemId) {
+		Node[] update = predecessors(price, itemId);
+		Node node = update[0].next[0];
+		if (node == null || compare(node, price, itemId) != 0) {
+			return;
+		}
+		for (int i = 0; i < node.next.length; i++) {
+			update[i].next[i] = node.next[i];
+		}
+		if (node.next[0] != null) {
+			node.next[0].previous = update[0];
+		}
+		while (level > 1 && head.next[level - 1] == null) {
+			level--;
+		}
+		size--;
+	}
+
+	private static int compare(Node node, double price, String itemId) {
+		int byPrice = Double.compare(node.price, price);
+		return byPrice != 0 ? byPrice : node.itemId.compareTo(itemId);
+	}
+
+	// one level more with probability 1/4
+	private static int randomLevel() {
+		int nodeLevel = 1;
+		while (nodeLevel < MAX_LEVEL && ThreadLocalRandom.current().nextInt(4) == 0) {
+			nodeLevel++;
+		}
+		return nodeLevel;
+	}
+
+	private static class Node {
+
+		final double price;
+
+		final String itemId;
+
+		final Node[] next;
+
+		Node previous;
+
+		Node(double price, String itemId, int level) {
+			this.price = price;
+			this.itemId = itemId;
+			this.next = new Node[level];
+		}
+	}
+
+	private static class Entry {
+
+		// null for a tombstone
+		final Double price;
+
+		final long version;
+
+		Entry(Double price, long version) {
+			this.price = price;
+			this.version = version;
+		}
+	}
+}
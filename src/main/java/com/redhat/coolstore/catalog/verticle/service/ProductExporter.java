@@ -0,0 +1,433 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static com.redhat.coolstore.catalog.verticle.service.CatalogServiceImpl.DELETED_FIELD;
+import static com.redhat.coolstore.catalog.verticle.service.CatalogServiceImpl.VERSION_FIELD;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.redhat.coolstore.catalog.model.Product;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Export files of the whole catalog, for the partners that download all of it.
+ * <p>
+ * Every `catalog.export.interval` ms, the products are read from the store in
+ * pages of `catalog.export.batch` documents, in (`_version`, `_id`) order, and
+ * written to `catalog.export.dir` in each of the `catalog.export.formats`
+ * (`ndjson`, `csv`), along with a gzip copy. Encoding and writing run on a
+ * worker thread, the event loop only fetches the pages.
+ * <p>
+ * A product updated during the scan comes again later in it, and a deleted
+ * one as a tombstone: the scan is spooled to a file first, and only the last
+ * copy of each product is exported. The manifest `version` is the highest
+ * version of the store when the export started (at most
+ * `catalog.changes.lag` ms behind the clock, like the changes feed): the files
+ * hold every write up to it, and maybe some later ones, so that clients catch
+ * up with `/products/changes` from it.
+ * <p>
+ * The files of an export are named after its generation, and published by
+ * writing the manifest `export.json` and sending it to
+ * {@link CatalogService#EXPORTS_ADDRESS}. The manifest holds the size and the
+ * ETag of each file, and the byte offset of every `catalog.export.chunk`th
+ * record, so that clients can download a file in record aligned ranges. The
+ * files of the last `catalog.export.keep` exports are kept, for the downloads
+ * in progress when a new export is published.
+ */
+class ProductExporter {
+
+	static final String MANIFEST = "export.json";
+
+	private static final Pattern EXPORT_FILE = Pattern.compile("products-(\\d+)\\..*");
+
+	private static final byte[] CSV_HEADER = "itemId,name,desc,price\r\n".getBytes(StandardCharsets.UTF_8);
+
+	private final Vertx vertx;
+
+	private final ProductStore store;
+
+	private final Path dir;
+
+	private final List<String> formats;
+
+	private final long interval;
+
+	private final int batch;
+
+	private final int chunk;
+
+	private final int keep;
+
+	private final long changesLag;
+
+	private long timer = -1;
+
+	private boolean running;
+
+	private boolean stopped;
+
+	ProductExporter(Vertx vertx, JsonObject config, ProductStore store) {
+		this.vertx = vertx;
+		this.store = store;
+		this.dir = Paths.get(config.getString("catalog.export.dir", "exports"));
+		this.formats = config.getJsonArray("catalog.export.formats", new JsonArray().add("ndjson").add("csv"))
+				.stream().map(Object::toString).collect(Collectors.toList());
+		for (String format : formats) {
+			if (!format.equals("ndjson") && !format.equals("csv")) {
+				throw new IllegalArgumentException("Unknown catalog.export.formats entry: " + format);
+			}
+		}
+		this.interval = config.getLong("catalog.export.interval", 24 * 3600 * 1000L);
+		this.batch = config.getInteger("catalog.export.batch", 1000);
+		this.chunk = config.getInteger("catalog.export.chunk", 10000);
+		this.keep = Math.max(1, config.getInteger("catalog.export.keep", 2));
+		this.changesLag = config.getLong("catalog.changes.lag", 5000L);
+	}
+
+	/**
+	 * Exports now, then every `catalog.export.interval` ms.
+	 */
+	void start() {
+		timer = vertx.setPeriodic(interval, tid -> export(ar -> {
+		}));
+		export(ar -> {
+		});
+	}
+
+	/**
+	 * Cancels the next exports, the one in progress stops at its next page.
+	 */
+	void stop() {
+		stopped = true;
+		if (timer != -1) {
+			vertx.cancelTimer(timer);
+		}
+	}
+
+	/**
+	 * Writes a new set of export files, `handler` gets their manifest.
+	 */
+	void export(Handler<AsyncResult<JsonObject>> handler) {
+		if (running) {
+			handler.handle(Future.failedFuture("An export is already running"));
+			return;
+		}
+		running = true;
+		long generation = System.currentTimeMillis();
+		Handler<AsyncResult<JsonObject>> done = ar -> {
+			running = false;
+			if (ar.succeeded()) {
+				System.out.println("Exported " + ar.result().getInteger("products") + " products in "
+						+ (System.currentTimeMillis() - generation) + " ms");
+				vertx.eventBus().publish(CatalogService.EXPORTS_ADDRESS, ar.result());
+			} else {
+				System.out.println("Failed to export the catalog: " + ar.cause().getMessage());
+			}
+			handler.handle(ar);
+		};
+		store.latestVersion(latest -> {
+			if (latest.failed()) {
+				done.handle(Future.failedFuture(latest.cause()));
+				return;
+			}
+			// writes still in flight at the start may get lower versions
+			long version = Math.min(latest.result(), generation - changesLag);
+			// ordered: the pages of an export are written one after the other
+			vertx.<Export>executeBlocking(future -> {
+				try {
+					future.complete(new Export(generation, version));
+				} catch (IOException e) {
+					future.fail(e);
+				}
+			}, true, ar -> {
+				if (ar.succeeded()) {
+					nextPage(ar.result(), 0, "", done);
+				} else {
+					done.handle(Future.failedFuture(ar.cause()));
+				}
+			});
+		});
+	}
+
+	private void nextPage(Export export, long version, String after, Handler<AsyncResult<JsonObject>> done) {
+		if (stopped) {
+			abort(export, new IllegalStateException("Stopped"), done);
+			return;
+		}
+		store.findChanges(version, after, batch, ar -> {
+			if (ar.failed()) {
+				abort(export, ar.cause(), done);
+				return;
+			}
+			List<JsonObject> page = ar.result();
+			boolean last = page.size() < batch;
+			vertx.<JsonObject>executeBlocking(future -> {
+				try {
+					export.write(page);
+					future.complete(last ? export.publish() : null);
+				} catch (IOException e) {
+					future.fail(e);
+				}
+			}, true, written -> {
+				if (written.failed()) {
+					abort(export, written.cause(), done);
+				} else if (last) {
+					done.handle(Future.succeededFuture(written.result()));
+				} else {
+					JsonObject tail = page.get(page.size() - 1);
+					nextPage(export, tail.getLong(VERSION_FIELD, 0L), tail.getString("_id"), done);
+				}
+			});
+		});
+	}
+
+	private void abort(Export export, Throwable cause, Handler<AsyncResult<JsonObject>> done) {
+		vertx.<Void>executeBlocking(future -> {
+			export.abort();
+			future.complete();
+		}, true, ar -> done.handle(Future.failedFuture(cause)));
+	}
+
+	// deletes the files of all but the last `keep` exports
+	private void prune() throws IOException {
+		TreeSet<Long> generations = new TreeSet<>();
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path file : stream) {
+				Matcher matcher = EXPORT_FILE.matcher(file.getFileName().toString());
+				if (matcher.matches()) {
+					generations.add(Long.parseLong(matcher.group(1)));
+					files.add(file);
+				}
+			}
+		}
+		while (generations.size() > keep) {
+			generations.pollFirst();
+		}
+		for (Path file : files) {
+			Matcher matcher = EXPORT_FILE.matcher(file.getFileName().toString());
+			if (matcher.matches() && !generations.contains(Long.parseLong(matcher.group(1)))) {
+				Files.deleteIfExists(file);
+			}
+		}
+	}
+
+	private static Path tmp(Path file) {
+		return file.resolveSibling(file.getFileName() + ".tmp");
+	}
+
+	// the files of one export, used from worker threads one page at a time
+	private class Export {
+
+		final long generation;
+
+		final long version;
+
+		final List<FormatWriter> writers = new ArrayList<>();
+
+		final Path scan;
+
+		final BufferedWriter scanned;
+
+		// the version of the last copy of each product in the scan
+		final Map<String, Long> last = new HashMap<>();
+
+		int products;
+
+		Export(long generation, long version) throws IOException {
+			this.generation = generation;
+			this.version = version;
+			Files.createDirectories(dir);
+			this.scan = dir.resolve("scan-" + generation + ".tmp");
+			this.scanned = Files.newBufferedWriter(scan, StandardCharsets.UTF_8);
+			try {
+				for (String format : formats) {
+					writers.add(new FormatWriter(format, generation));
+				}
+			} catch (IOException e) {
+				abort();
+				throw e;
+			}
+		}
+
+		void write(List<JsonObject> documents) throws IOException {
+			for (JsonObject document : documents) {
+				last.put(document.getString("_id"), document.getLong(VERSION_FIELD, 0L));
+				scanned.write(document.encode());
+				scanned.newLine();
+			}
+		}
+
+		// writes the last copy of each product, renames the files, then replaces
+		// the manifest
+		JsonObject publish() throws IOException {
+			scanned.close();
+			try (BufferedReader reader = Files.newBufferedReader(scan, StandardCharsets.UTF_8)) {
+				for (String line; (line = reader.readLine()) != null;) {
+					JsonObject document = new JsonObject(line);
+					Long lastVersion = last.get(document.getString("_id"));
+					if (lastVersion == null || !lastVersion.equals(document.getLong(VERSION_FIELD, 0L))) {
+						continue;
+					}
+					last.remove(document.getString("_id"));
+					if (document.getBoolean(DELETED_FIELD, false)) {
+						continue;
+					}
+					products++;
+					Product product = new Product(document);
+					for (FormatWriter writer : writers) {
+						writer.write(product);
+					}
+				}
+			}
+			Files.delete(scan);
+			JsonObject files = new JsonObject();
+			for (FormatWriter writer : writers) {
+				files.put(writer.format, writer.close());
+			}
+			JsonObject manifest = new JsonObject().put("generation", generation)
+					.put("generated", Instant.ofEpochMilli(generation).toString()).put("version", version)
+					.put("products", products).put("files", files);
+			Path target = dir.resolve(MANIFEST);
+			Files.write(tmp(target), manifest.toBuffer().getBytes());
+			Files.move(tmp(target), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			prune();
+			return manifest;
+		}
+
+		void abort() {
+			for (FormatWriter writer : writers) {
+				writer.abort();
+			}
+			try {
+				scanned.close();
+				Files.deleteIfExists(scan);
+			} catch (IOException e) {
+				System.out.println("Failed to delete the export scan " + scan + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private class FormatWriter {
+
+		final String format;
+
+		final Path file;
+
+		final Path gzipFile;
+
+		final CheckedOutputStream out;
+
+		final OutputStream gzip;
+
+		final List<Long> chunks = new ArrayList<>();
+
+		long size;
+
+		long records;
+
+		FormatWriter(String format, long generation) throws IOException {
+			this.format = format;
+			this.file = dir.resolve("products-" + generation + "." + format);
+			this.gzipFile = dir.resolve(file.getFileName() + ".gz");
+			this.out = new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp(file)), 64 * 1024),
+					new CRC32());
+			this.gzip = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp(gzipFile)), 64 * 1024),
+					64 * 1024);
+			if (format.equals("csv")) {
+				append(CSV_HEADER);
+			}
+		}
+
+		void write(Product product) throws IOException {
+			if (records++ % chunk == 0) {
+				chunks.add(size);
+			}
+			if (format.equals("csv")) {
+				append(csv(product));
+			} else {
+				append((product.toJson().encode() + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+		}
+
+		private void append(byte[] bytes) throws IOException {
+			out.write(bytes);
+			gzip.write(bytes);
+			size += bytes.length;
+		}
+
+		JsonObject close() throws IOException {
+			out.close();
+			gzip.close();
+			Files.move(tmp(file), file, StandardCopyOption.ATOMIC_MOVE);
+			Files.move(tmp(gzipFile), gzipFile, StandardCopyOption.ATOMIC_MOVE);
+			// the gzip copy is deterministic: same content, same compressed bytes
+			String tag = Long.toHexString(out.getChecksum().getValue()) + "-" + Long.toHexString(size);
+			return new JsonObject().put("file", file.getFileName().toString())
+					.put("contentType", format.equals("csv") ? "text/csv; charset=utf-8" : "application/x-ndjson")
+					.put("size", size).put("etag", "\"" + tag + "\"").put("chunks", new JsonArray(chunks))
+					.put("gzip", new JsonObject().put("file", gzipFile.getFileName().toString())
+							.put("size", Files.size(gzipFile)).put("etag", "\"" + tag + "-gzip\""));
+		}
+
+		void abort() {
+			try {
+				out.close();
+				gzip.close();
+			} catch (IOException e) {
+				// deleted anyway
+			}
+			try {
+				Files.deleteIfExists(tmp(file));
+				Files.deleteIfExists(tmp(gzipFile));
+			} catch (IOException e) {
+				System.out.println("Failed to delete the partial export " + file + ": " + e.getMessage());
+			}
+		}
+	}
+
+	// RFC 4180: fields with separators, quotes or line breaks are quoted
+	private static byte[] csv(Product product) {
+		StringBuilder line = new StringBuilder();
+		line.append(csvField(product.getItemId())).append(',').append(csvField(product.getName())).append(',')
+				.append(csvField(product.getDesc())).append(',').append(product.getPrice()).append("\r\n");
+		return line.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String csvField(String value) {
+		if (value == null) {
+			return "";
+		}
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+}
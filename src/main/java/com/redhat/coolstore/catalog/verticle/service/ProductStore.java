@@ -0,0 +1,81 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Storage of the product documents behind {@link CatalogServiceImpl}.
+ * <p>
+ * A document is the JSON form of a product, with the item id as `_id`, the
+ * version of its last write in `_version`, and `_deleted` set on the tombstones
+ * of deleted products. Implementations must not block the calling event loop:
+ * blocking backends implement {@link BlockingProductStore} instead, and are run
+ * on a worker pool or on virtual threads.
+ */
+public interface ProductStore {
+
+	/**
+	 * Creates the store selected by `catalog.store.type`: `mongo` (default) or
+	 * `file`.
+	 */
+	static ProductStore create(Vertx vertx, JsonObject config) {
+		String type = config.getString("catalog.store.type", "mongo");
+		switch (type) {
+		case "mongo":
+			return new MongoProductStore(MongoPools.create(vertx, config, CatalogServiceImpl.READ_METHODS));
+		case "file":
+			return new BlockingStoreAdapter(vertx, new FileProductStore(config), config);
+		default:
+			throw new IllegalArgumentException("Unknown catalog.store.type: " + type);
+		}
+	}
+
+	void open(Handler<AsyncResult<Void>> handler);
+
+	/**
+	 * The products that are not deleted.
+	 */
+	void findProducts(Handler<AsyncResult<List<JsonObject>>> handler);
+
+	/**
+	 * The product with the given id, or null if it does not exist or is deleted.
+	 */
+	void findProduct(String id, Handler<AsyncResult<JsonObject>> handler);
+
+	/**
+	 * Up to `limit` documents, tombstones included, that come after
+	 * (`version`, `after`) in (`_version`, `_id`) order. Documents without a
+	 * version sort as version 0.
+	 */
+	void findChanges(long version, String after, int limit, Handler<AsyncResult<List<JsonObject>>> handler);
+
+	/**
+	 * The highest `_version` of the documents, tombstones included, 0 if there
+	 * are none.
+	 */
+	void latestVersion(Handler<AsyncResult<Long>> handler);
+
+	/**
+	 * Inserts or replaces a document.
+	 */
+	void save(JsonObject document, Handler<AsyncResult<Void>> handler);
+
+	/**
+	 * Inserts or replaces documents in bulk.
+	 */
+	void saveAll(Collection<JsonObject> documents, Handler<AsyncResult<Void>> handler);
+
+	/**
+	 * Checks that the backend is reachable.
+	 */
+	void ping(Handler<AsyncResult<Void>> handler);
+
+	JsonObject stats();
+
+	void close(Handler<AsyncResult<Void>> handler);
+}
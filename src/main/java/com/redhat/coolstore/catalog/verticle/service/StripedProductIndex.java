@@ -0,0 +1,190 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.redhat.coolstore.catalog.model.Product;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+/**
+ * In-memory index of the products by item id, safe for use from several event
+ * loops.
+ * <p>
+ * The index is split by item id hash into a power of two number of stripes.
+ * Each stripe publishes an immutable map through a volatile field: reads are a
+ * volatile load and a map lookup, without locks. Writes to a stripe are
+ * serialized on the stripe and replace its map with an updated copy, so writes
+ * to different stripes run in parallel, and a batch pays one copy per stripe it
+ * touches.
+ * <p>
+ * Entries carry the version of the last write, and a write only applies if it
+ * is newer, so that updates can be applied in any order. Deleted products are
+ * kept as tombstones for the same reason.
+ */
+class StripedProductIndex implements Shareable {
+
+	private static final Entry[] NO_ENTRIES = new Entry[0];
+
+	private final Stripe[] stripes;
+
+	private final int mask;
+
+	StripedProductIndex(int stripes) {
+		int size = 1;
+		while (size < stripes) {
+			size <<= 1;
+		}
+		this.stripes = new Stripe[size];
+		for (int i = 0; i < size; i++) {
+			this.stripes[i] = new Stripe();
+		}
+		this.mask = size - 1;
+	}
+
+	private int index(String itemId) {
+		int h = itemId.hashCode();
+		// spread the high bits, as HashMap does
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private Stripe stripe(String itemId) {
+		return stripes[index(itemId)];
+	}
+
+	/**
+	 * The product with the given id, or null if it is not in the index or
+	 * deleted.
+	 */
+	Product get(String itemId) {
+		Entry entry = stripe(itemId).entries.get(itemId);
+		return entry == null ? null : entry.product;
+	}
+
+	/**
+	 * The products in the index. Each stripe is read at a single point in time,
+	 * but writes to other stripes may land while the stripes are read.
+	 */
+	List<Product> values() {
+		List<Product> products = new ArrayList<>();
+		for (Stripe stripe : stripes) {
+			for (Entry entry : stripe.entries.values()) {
+				if (entry.product != null) {
+					products.add(entry.product);
+				}
+			}
+		}
+		return products;
+	}
+
+	/**
+	 * Sets the product, unless the index holds a newer version of it.
+	 *
+	 * @return true if the index was updated
+	 */
+	boolean put(Product product, long version) {
+		return stripe(product.getItemId()).apply(new Entry[] { new Entry(product.getItemId(), product, version) });
+	}
+
+	/**
+	 * Marks the product as deleted, unless the index holds a newer version of
+	 * it.
+	 *
+	 * @return true if the index was updated
+	 */
+	boolean remove(String itemId, long version) {
+		return stripe(itemId).apply(new Entry[] { new Entry(itemId, null, version) });
+	}
+
+	/**
+	 * Applies a batch of product documents (see {@link ProductStore}), with one
+	 * copy per stripe touched. Tombstones mark products as deleted.
+	 */
+	void putAll(Collection<JsonObject> documents) {
+		List<List<Entry>> byStripe = new ArrayList<>(stripes.length);
+		for (int i = 0; i < stripes.length; i++) {
+			byStripe.add(null);
+		}
+		for (JsonObject document : documents) {
+			String itemId = document.getString("_id");
+			int index = index(itemId);
+			if (byStripe.get(index) == null) {
+				byStripe.set(index, new ArrayList<>());
+			}
+			byStripe.get(index).add(new Entry(itemId,
+					document.getBoolean(CatalogServiceImpl.DELETED_FIELD, false) ? null : new Product(document),
+					document.getLong(CatalogServiceImpl.VERSION_FIELD, 0L)));
+		}
+		for (int i = 0; i < stripes.length; i++) {
+			if (byStripe.get(i) != null) {
+				stripes[i].apply(byStripe.get(i).toArray(NO_ENTRIES));
+			}
+		}
+	}
+
+	/**
+	 * The number of products in the index, tombstones excluded.
+	 */
+	int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.live;
+		}
+		return size;
+	}
+
+	int stripes() {
+		return stripes.length;
+	}
+
+	private static class Stripe {
+
+		// never modified once published
+		volatile Map<String, Entry> entries = new HashMap<>();
+
+		volatile int live;
+
+		synchronized boolean apply(Entry[] updates) {
+			Map<String, Entry> current = entries;
+			Map<String, Entry> next = null;
+			int count = live;
+			for (Entry update : updates) {
+				Entry previous = (next != null ? next : current).get(update.itemId);
+				if (previous != null && previous.version >= update.version) {
+					continue;
+				}
+				if (next == null) {
+					next = new HashMap<>(current);
+				}
+				next.put(update.itemId, update);
+				count += (update.product != null ? 1 : 0) - (previous != null && previous.product != null ? 1 : 0);
+			}
+			if (next == null) {
+				return false;
+			}
+			entries = next;
+			live = count;
+			return true;
+		}
+	}
+
+	private static class Entry {
+
+		final String itemId;
+
+		// null for a tombstone
+		final Product product;
+
+		final long version;
+
+		Entry(String itemId, Product product, long version) {
+			this.itemId = itemId;
+			this.product = product;
+			this.version = version;
+		}
+	}
+}
@@ -0,0 +1,378 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import com.redhat.coolstore.catalog.model.Product;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Two-tier cache of product documents in front of the store.
+ * <p>
+ * L1 is a small LRU cache private to this replica. L2 is partitioned across
+ * the replicas of the catalog service: the owner of a key on a consistent hash
+ * ring of the live replicas holds its L2 entry, and serves it to the other
+ * replicas over the event bus (clustered in a multi-node deployment). A miss in
+ * both tiers loads from the store and fills both, so a cold replica warms from
+ * its peers rather than from the database.
+ * <p>
+ * Replicas announce themselves on {@link #MEMBERS_ADDRESS} every heartbeat
+ * interval and are dropped after three missed heartbeats. When the members
+ * change, L2 entries are handed over to their new owners. Product changes
+ * invalidate both tiers on every replica, and a load racing with a change of
+ * its key is not cached; entries also expire after `catalog.cache.ttl` ms. The
+ * sizes of the tiers and the TTL can be changed live, see
+ * {@link #configure(JsonObject)}. Must be used from the event loop of the
+ * service.
+ */
+class TieredProductCache {
+
+	static final String MEMBERS_ADDRESS = "catalog-cache.members";
+
+	static final String NODE_ADDRESS_PREFIX = "catalog-cache.node.";
+
+	// the key of the full product list
+	static final String ALL = "*";
+
+	private static final int GENERATION_STRIPES = 1024;
+
+	private final Vertx vertx;
+
+	private final String nodeId = UUID.randomUUID().toString();
+
+	private final Lru l1;
+
+	private final Lru l2;
+
+	private long ttl;
+
+	private final long heartbeatInterval;
+
+	private final long peerTimeout;
+
+	private final int virtualNodes;
+
+	private final Map<String, Long> members = new HashMap<>();
+
+	private HashRing ring;
+
+	// Generations of the keys, bumped by their changes: a load that raced with
+	// a change of its key is not cached. Item keys share a fixed number of
+	// stripes, the full list has its own and is bumped by every change.
+	private final long[] generations = new long[GENERATION_STRIPES];
+	private long allGeneration;
+
+	private MessageConsumer<JsonObject> nodeConsumer;
+	private MessageConsumer<JsonObject> membersConsumer;
+	private MessageConsumer<Product> changesConsumer;
+	private long heartbeatTimer = -1;
+
+	private long l1Hits;
+	private long l2Hits;
+	private long peerHits;
+	private long peerErrors;
+	private long loads;
+
+	TieredProductCache(Vertx vertx, JsonObject config) {
+		this.vertx = vertx;
+		this.l1 = new Lru(config.getInteger("catalog.cache.l1.size", 1000));
+		this.l2 = new Lru(config.getInteger("catalog.cache.l2.size", 10000));
+		this.ttl = config.getLong("catalog.cache.ttl", 60000L);
+		this.heartbeatInterval = config.getLong("catalog.cache.heartbeat.interval", 1000L);
+		this.peerTimeout = config.getLong("catalog.cache.peer.timeout", 200L);
+		this.virtualNodes = config.getInteger("catalog.cache.virtual.nodes", 64);
+		members.put(nodeId, Long.MAX_VALUE);
+		ring = new HashRing(members.keySet(), virtualNodes);
+	}
+
+	/**
+	 * Applies the sizes and TTL of a configuration change. Shrinking a tier
+	 * evicts its least recently used entries; the new TTL applies to the
+	 * entries cached from now on.
+	 */
+	void configure(JsonObject config) {
+		l1.resize(config.getInteger("catalog.cache.l1.size", 1000));
+		l2.resize(config.getInteger("catalog.cache.l2.size", 10000));
+		ttl = config.getLong("catalog.cache.ttl", 60000L);
+	}
+
+	/**
+	 * Joins the other replicas. Completes after one peer timeout, so that the
+	 * replicas already running have had a chance to answer.
+	 */
+	void start(Handler<AsyncResult<Void>> handler) {
+		nodeConsumer = vertx.eventBus().consumer(NODE_ADDRESS_PREFIX + nodeId, this::handlePeerRequest);
+		membersConsumer = vertx.eventBus().consumer(MEMBERS_ADDRESS, message -> {
+			String member = message.body().getString("node");
+			if (member.equals(nodeId)) {
+				return;
+			}
+			if (message.body().getBoolean("leaving", false)) {
+				members.remove(member);
+				rebuildRing();
+				return;
+			}
+			if (members.put(member, System.currentTimeMillis()) == null) {
+				rebuildRing();
+				// let the new replica know about this one right away
+				heartbeat(false);
+			}
+		});
+		changesConsumer = vertx.eventBus().consumer(CatalogService.CHANGES_ADDRESS,
+				message -> invalidate(message.body().getItemId()));
+		heartbeatTimer = vertx.setPeriodic(heartbeatInterval, tid -> {
+			expireMembers();
+			heartbeat(false);
+		});
+		heartbeat(false);
+		vertx.setTimer(peerTimeout, tid -> handler.handle(Future.succeededFuture()));
+	}
+
+	void stop() {
+		vertx.cancelTimer(heartbeatTimer);
+		members.remove(nodeId);
+		rebuildRing();
+		heartbeat(true);
+		nodeConsumer.unregister();
+		membersConsumer.unregister();
+		changesConsumer.unregister();
+	}
+
+	private void heartbeat(boolean leaving) {
+		vertx.eventBus().publish(MEMBERS_ADDRESS, new JsonObject().put("node", nodeId).put("leaving", leaving));
+	}
+
+	private void expireMembers() {
+		long deadline = System.currentTimeMillis() - 3 * heartbeatInterval;
+		if (members.values().removeIf(lastSeen -> lastSeen < deadline)) {
+			rebuildRing();
+		}
+	}
+
+	/**
+	 * Rebuilds the ring after a membership change, and hands the L2 entries this
+	 * replica no longer owns over to their new owners.
+	 */
+	private void rebuildRing() {
+		ring = new HashRing(members.keySet(), virtualNodes);
+		for (String key : l2.keys()) {
+			String owner = ring.owner(key);
+			if (owner != null && !owner.equals(nodeId)) {
+				Object value = l2.get(key);
+				l2.remove(key);
+				if (value != null) {
+					vertx.eventBus().send(NODE_ADDRESS_PREFIX + owner,
+							new JsonObject().put("op", "put").put("key", key).put("value", value));
+				}
+			}
+		}
+	}
+
+	/**
+	 * The product document with the given id, null if it does not exist.
+	 */
+	void getProduct(String itemId, Handler<Handler<AsyncResult<JsonObject>>> loader,
+			Handler<AsyncResult<JsonObject>> handler) {
+		get(itemId, loader, handler);
+	}
+
+	/**
+	 * The documents of all the products that are not deleted.
+	 */
+	void getProducts(Handler<Handler<AsyncResult<List<JsonObject>>>> loader,
+			Handler<AsyncResult<List<JsonObject>>> handler) {
+		this.<JsonArray>get(ALL, h -> loader.handle(res -> h.handle(res.map(JsonArray::new))),
+				res -> handler.handle(res.map(array -> array.stream().map(JsonObject.class::cast)
+						.collect(Collectors.toList()))));
+	}
+
+	// values are JsonObject documents, or a JsonArray for ALL
+	@SuppressWarnings("unchecked")
+	private <T> void get(String key, Handler<Handler<AsyncResult<T>>> loader, Handler<AsyncResult<T>> handler) {
+		Object cached = l1.get(key);
+		if (cached != null) {
+			l1Hits++;
+			handler.handle(Future.succeededFuture((T) cached));
+			return;
+		}
+		String owner = ring.owner(key);
+		if (owner == null) {
+			// stopped as the last member: no L2 to look in
+			load(key, null, loader, handler);
+			return;
+		}
+		if (owner.equals(nodeId)) {
+			cached = l2.get(key);
+			if (cached != null) {
+				l2Hits++;
+				l1.put(key, cached, ttl);
+				handler.handle(Future.succeededFuture((T) cached));
+			} else {
+				load(key, owner, loader, handler);
+			}
+			return;
+		}
+		long requested = generation(key);
+		vertx.eventBus().<JsonObject>send(NODE_ADDRESS_PREFIX + owner, new JsonObject().put("op", "get").put("key", key),
+				new DeliveryOptions().setSendTimeout(peerTimeout), reply -> {
+					Object value = reply.succeeded() ? reply.result().body().getValue("value") : null;
+					if (reply.failed()) {
+						peerErrors++;
+					}
+					if (value != null) {
+						peerHits++;
+						if (requested == generation(key)) {
+							l1.put(key, value, ttl);
+						}
+						handler.handle(Future.succeededFuture((T) value));
+					} else {
+						load(key, owner, loader, handler);
+					}
+				});
+	}
+
+	private <T> void load(String key, String owner, Handler<Handler<AsyncResult<T>>> loader,
+			Handler<AsyncResult<T>> handler) {
+		long requested = generation(key);
+		loads++;
+		loader.handle(res -> {
+			if (res.succeeded() && res.result() != null && requested == generation(key)) {
+				l1.put(key, res.result(), ttl);
+				// without an owner, it is only kept in L1
+				if (nodeId.equals(owner)) {
+					l2.put(key, res.result(), ttl);
+				} else if (owner != null) {
+					vertx.eventBus().send(NODE_ADDRESS_PREFIX + owner,
+							new JsonObject().put("op", "put").put("key", key).put("value", res.result()));
+				}
+			}
+			handler.handle(res);
+		});
+	}
+
+	private void handlePeerRequest(Message<JsonObject> message) {
+		String key = message.body().getString("key");
+		switch (message.body().getString("op")) {
+		case "get":
+			Object value = l2.get(key);
+			if (value != null) {
+				l2Hits++;
+			}
+			message.reply(new JsonObject().put("value", value));
+			break;
+		case "put":
+			l2.put(key, message.body().getValue("value"), ttl);
+			break;
+		default:
+			message.fail(400, "Unknown cache operation");
+		}
+	}
+
+	private long generation(String key) {
+		return key.equals(ALL) ? allGeneration : generations[stripe(key)];
+	}
+
+	private static int stripe(String key) {
+		return (key.hashCode() & 0x7fffffff) % GENERATION_STRIPES;
+	}
+
+	private void invalidate(String itemId) {
+		generations[stripe(itemId)]++;
+		allGeneration++;
+		l1.remove(itemId);
+		l1.remove(ALL);
+		l2.remove(itemId);
+		l2.remove(ALL);
+	}
+
+	JsonObject toJson() {
+		return new JsonObject().put("node", nodeId).put("members", members.size())
+				.put("l1", new JsonObject().put("size", l1.size()).put("hits", l1Hits))
+				.put("l2", new JsonObject().put("size", l2.size()).put("hits", l2Hits).put("peerHits", peerHits)
+						.put("peerErrors", peerErrors))
+				.put("loads", loads);
+	}
+
+	private static class Lru {
+
+		private final LinkedHashMap<String, Entry> entries;
+
+		private int maxSize;
+
+		Lru(int maxSize) {
+			this.maxSize = maxSize;
+			this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+					return size() > Lru.this.maxSize;
+				}
+			};
+		}
+
+		void resize(int maxSize) {
+			this.maxSize = maxSize;
+			Iterator<String> eldest = entries.keySet().iterator();
+			while (entries.size() > maxSize) {
+				eldest.next();
+				eldest.remove();
+			}
+		}
+
+		Object get(String key) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			if (entry.expires < System.currentTimeMillis()) {
+				entries.remove(key);
+				return null;
+			}
+			return entry.value;
+		}
+
+		void put(String key, Object value, long ttl) {
+			entries.put(key, new Entry(value, System.currentTimeMillis() + ttl));
+		}
+
+		void remove(String key) {
+			entries.remove(key);
+		}
+
+		List<String> keys() {
+			return new ArrayList<>(entries.keySet());
+		}
+
+		int size() {
+			return entries.size();
+		}
+	}
+
+	private static class Entry {
+
+		final Object value;
+
+		final long expires;
+
+		Entry(Object value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Write-behind buffer for product documents.
+ * <p>
+ * Accepted documents are appended to a local journal and acknowledged once
+ * the journal has been forced to disk. They are then kept in memory, coalesced
+ * per `_id` (last write wins), and written to the store in bulk when the batch
+ * size is reached or the flush interval elapses. Their version is stamped when
+ * they are flushed, so that incremental sync sees them in the order they reach
+ * the store, and the flushed handler is called with the documents as stored.
+ * <p>
+ * The journal is a sequence of segment files. A flush seals the current
+ * segment and starts a new one; the sealed segments are deleted once the bulk
+ * write has succeeded. Segments left over from a previous run are replayed
+ * when the queue is opened.
+ * <p>
+ * All journal I/O runs in ordered blocking tasks, so appends, segment
+ * rotations and deletions happen in the order they were requested. The other
+ * methods must be called on the event loop of the owning service.
+ */
+class WriteBehindQueue {
+
+	private static final String SEGMENT_PREFIX = "products-";
+	private static final String SEGMENT_SUFFIX = ".journal";
+
+	private final Vertx vertx;
+
+	private final ProductStore store;
+
+	private final Path directory;
+
+	private final int batchSize;
+
+	private final long flushInterval;
+
+	// accepted documents not yet handed to the store, by _id
+	private Map<String, JsonObject> pending = new LinkedHashMap<>();
+
+	// documents of the bulk write in progress, by _id
+	private Map<String, JsonObject> flushing = new LinkedHashMap<>();
+
+	// journal lines waiting for the next append task, and their callers
+	private Buffer journalBatch = Buffer.buffer();
+	private List<Handler<AsyncResult<Void>>> journalWaiters = new ArrayList<>();
+	private boolean appending;
+
+	// accessed from blocking tasks only
+	private FileChannel segment;
+	private int segmentIndex;
+
+	private boolean flushInProgress;
+
+	private long flushTimer = -1;
+
+	private Handler<List<JsonObject>> flushedHandler = documents -> {
+	};
+
+	WriteBehindQueue(Vertx vertx, ProductStore store, JsonObject config) {
+		this.vertx = vertx;
+		this.store = store;
+		this.directory = Paths.get(config.getString("catalog.writebehind.journal.dir", "journal"));
+		this.batchSize = config.getInteger("catalog.writebehind.batch.size", 500);
+		this.flushInterval = config.getLong("catalog.writebehind.flush.interval", 200L);
+	}
+
+	/**
+	 * Sets the handler called with the documents of each successful bulk write,
+	 * carrying the version they were stored with.
+	 */
+	void flushedHandler(Handler<List<JsonObject>> handler) {
+		this.flushedHandler = handler;
+	}
+
+	/**
+	 * Replays the journal left by a previous run, opens a new segment and starts
+	 * the periodic flush.
+	 */
+	void open(Handler<AsyncResult<Void>> handler) {
+		vertx.<Map<String, JsonObject>>executeBlocking(f -> {
+			try {
+				Files.createDirectories(directory);
+				Map<String, JsonObject> replayed = new LinkedHashMap<>();
+				int last = 0;
+				for (Map.Entry<Integer, Path> entry : segments().entrySet()) {
+					for (String line : Files.readAllLines(entry.getValue(), StandardCharsets.UTF_8)) {
+						// a torn last line is an append that was never acknowledged
+						if (line.endsWith("}")) {
+							JsonObject document = new JsonObject(line);
+							replayed.put(document.getString("_id"), document);
+						}
+					}
+					last = entry.getKey();
+				}
+				segmentIndex = last + 1;
+				segment = openSegment(segmentIndex);
+				f.complete(replayed);
+			} catch (Exception e) {
+				f.fail(e);
+			}
+		}, true, ar -> {
+			if (ar.failed()) {
+				handler.handle(Future.failedFuture(ar.cause()));
+				return;
+			}
+			pending.putAll(ar.result());
+			flushTimer = vertx.setPeriodic(flushInterval, tid -> flush(null));
+			if (!pending.isEmpty()) {
+				System.out.println("Replaying " + pending.size() + " journaled product writes");
+				flush(null);
+			}
+			handler.handle(Future.succeededFuture());
+		});
+	}
+
+	/**
+	 * Flushes what is pending and closes the journal. Entries that cannot be
+	 * written to the store stay in the journal for the next start.
+	 */
+	void close(Handler<AsyncResult<Void>> handler) {
+		vertx.cancelTimer(flushTimer);
+		flush(flushed -> vertx.<Void>executeBlocking(f -> {
+			try {
+				if (segment != null) {
+					segment.close();
+				}
+				f.complete();
+			} catch (IOException e) {
+				f.fail(e);
+			}
+		}, true, closed -> handler.handle(flushed.failed() ? flushed : closed)));
+	}
+
+	/**
+	 * Accepts a document. The handler is called once the document is durable in
+	 * the journal; it is only visible to reads and flushed from then on.
+	 */
+	void add(JsonObject document, Handler<AsyncResult<Void>> handler) {
+		journalBatch.appendString(document.encode()).appendByte((byte) '\n');
+		journalWaiters.add(ar -> {
+			if (ar.succeeded()) {
+				pending.put(document.getString("_id"), document);
+				if (pending.size() >= batchSize) {
+					flush(null);
+				}
+			}
+			handler.handle(ar);
+		});
+		if (!appending) {
+			appendJournal();
+		}
+	}
+
+	/**
+	 * The latest accepted document with the given id that may not be in the store
+	 * yet, or null.
+	 */
+	JsonObject get(String id) {
+		JsonObject document = pending.get(id);
+		return document != null ? document : flushing.get(id);
+	}
+
+	/**
+	 * The documents that may not be in the store yet, latest write per id.
+	 */
+	Collection<JsonObject> unflushed() {
+		Map<String, JsonObject> documents = new LinkedHashMap<>(flushing);
+		documents.putAll(pending);
+		return documents.values();
+	}
+
+	int size() {
+		return pending.size() + flushing.size();
+	}
+
+	// Group commit: all lines added while an append task runs are written and
+	// forced by the next one.
+	private void appendJournal() {
+		Buffer batch = journalBatch;
+		List<Handler<AsyncResult<Void>>> waiters = journalWaiters;
+		journalBatch = Buffer.buffer();
+		journalWaiters = new ArrayList<>();
+		appending = true;
+		vertx.<Void>executeBlocking(f -> {
+			try {
+				ByteBuffer bytes = ByteBuffer.wrap(batch.getBytes());
+				while (bytes.hasRemaining()) {
+					segment.write(bytes);
+				}
+				segment.force(false);
+				f.complete();
+			} catch (IOException e) {
+				f.fail(e);
+			}
+		}, true, ar -> {
+			appending = false;
+			waiters.forEach(w -> w.handle(ar));
+			if (!journalWaiters.isEmpty()) {
+				appendJournal();
+			}
+		});
+	}
+
+	private void flush(Handler<AsyncResult<Void>> handler) {
+		if (flushInProgress || pending.isEmpty()) {
+			// one bulk write at a time, the next timer tick picks up the rest
+			if (handler != null) {
+				handler.handle(Future.succeededFuture());
+			}
+			return;
+		}
+		flushInProgress = true;
+
+		// Seal the current segment. Journal tasks run in order, so the appends
+		// requested before the seal have completed, and their documents are
+		// pending, by the time it completes: the pending documents are then
+		// exactly those of the sealed segments. Later appends go to the new one.
+		vertx.<Integer>executeBlocking(f -> {
+			try {
+				segment.close();
+				int sealed = segmentIndex;
+				segment = openSegment(++segmentIndex);
+				f.complete(sealed);
+			} catch (IOException e) {
+				f.fail(e);
+			}
+		}, true, sealed -> {
+			if (sealed.failed()) {
+				flushInProgress = false;
+				complete(handler, sealed.cause());
+				return;
+			}
+			flushing = pending;
+			pending = new LinkedHashMap<>();
+			List<JsonObject> documents = new ArrayList<>(flushing.values());
+			for (JsonObject document : documents) {
+				document.put(CatalogServiceImpl.VERSION_FIELD, CatalogServiceImpl.nextVersion());
+			}
+			store.saveAll(documents, res -> {
+				flushInProgress = false;
+				if (res.failed()) {
+					System.out.println("Write-behind flush of " + documents.size() + " products failed: "
+							+ res.cause().getMessage());
+					restore();
+					complete(handler, res.cause());
+					return;
+				}
+				flushing = new LinkedHashMap<>();
+				deleteSegments(sealed.result());
+				flushedHandler.handle(documents);
+				complete(handler, null);
+			});
+		});
+	}
+
+	// puts the documents of a failed flush back, unless they were overwritten
+	// in the meantime
+	private void restore() {
+		Map<String, JsonObject> documents = flushing;
+		flushing = new LinkedHashMap<>();
+		documents.putAll(pending);
+		pending = documents;
+	}
+
+	private void deleteSegments(int upTo) {
+		vertx.executeBlocking(f -> {
+			try {
+				for (Map.Entry<Integer, Path> entry : segments().headMap(upTo, true).entrySet()) {
+					Files.deleteIfExists(entry.getValue());
+				}
+				f.complete();
+			} catch (IOException e) {
+				f.fail(e);
+			}
+		}, true, ar -> {
+			if (ar.failed()) {
+				System.out.println("Failed to delete journal segments: " + ar.cause().getMessage());
+			}
+		});
+	}
+
+	private void complete(Handler<AsyncResult<Void>> handler, Throwable cause) {
+		if (handler != null) {
+			handler.handle(cause == null ? Future.succeededFuture() : Future.failedFuture(cause));
+		}
+	}
+
+	private FileChannel openSegment(int index) throws IOException {
+		return FileChannel.open(directory.resolve(SEGMENT_PREFIX + index + SEGMENT_SUFFIX), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	private TreeMap<Integer, Path> segments() {
+		TreeMap<Integer, Path> segments = new TreeMap<>();
+		File[] files = directory.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+					try {
+						segments.put(Integer.parseInt(
+								name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())),
+								file.toPath());
+					} catch (NumberFormatException e) {
+						// not a segment
+					}
+				}
+			}
+		}
+		return segments;
+	}
+}
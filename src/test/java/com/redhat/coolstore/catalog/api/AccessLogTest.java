@@ -0,0 +1,115 @@
+package com.redhat.coolstore.catalog.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import com.redhat.coolstore.catalog.model.Product;
+import com.redhat.coolstore.catalog.verticle.service.CatalogService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class AccessLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String LINE = "\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}\\.\\d{3}Z GET /product/\\d+ 200 \\d+ total=\\d+ service=(\\d+|-) write=(\\d+|-)";
+
+	@Test
+	public void testFormatAndRotation() throws Exception {
+		File file = new File(folder.getRoot(), "access.log");
+		AccessLog log = new AccessLog(new JsonObject().put("catalog.accesslog.file", file.getAbsolutePath())
+				.put("catalog.accesslog.max.size", 500L).put("catalog.accesslog.files", 2)
+				.put("catalog.accesslog.flush.interval", 10L));
+		log.retain();
+		for (int i = 0; i < 50; i++) {
+			log.append(HttpMethod.GET, "/product/" + i, 200, 1234, 1530000, i % 2 == 0 ? 1210000 : -1, 45000);
+			if (i % 10 == 9) {
+				// let the writer rotate between batches
+				Thread.sleep(30);
+			}
+		}
+		assertThat(log.release(), equalTo(true));
+		assertThat(log.toJson().getLong("written"), equalTo(50L));
+		assertThat(log.toJson().getLong("dropped"), equalTo(0L));
+
+		assertThat(new File(folder.getRoot(), "access.log.1").exists(), equalTo(true));
+		assertThat(new File(folder.getRoot(), "access.log.2").exists(), equalTo(true));
+		assertThat(new File(folder.getRoot(), "access.log.3").exists(), equalTo(false));
+		List<String> lines = Files.readAllLines(new File(folder.getRoot(), "access.log.1").toPath(),
+				StandardCharsets.US_ASCII);
+		assertThat(lines.isEmpty(), equalTo(false));
+		lines.forEach(line -> assertThat(line, line.matches(LINE), equalTo(true)));
+		assertThat(lines.get(0).endsWith(" 200 1234 total=1530 service=1210 write=45")
+				|| lines.get(0).endsWith(" 200 1234 total=1530 service=- write=45"), equalTo(true));
+	}
+
+	@Test
+	public void testDropWhenFull() throws Exception {
+		AccessLog log = new AccessLog(new JsonObject().put("catalog.accesslog.buffer", 4)
+				.put("catalog.accesslog.file", new File(folder.getRoot(), "access.log").getAbsolutePath()));
+		// the writer is not running, nothing frees the ring
+		for (int i = 0; i < 10; i++) {
+			log.append(HttpMethod.GET, "/products", 200, 0, 0, -1, -1);
+		}
+		assertThat(log.toJson().getLong("pending"), equalTo(4L));
+		assertThat(log.toJson().getLong("dropped"), equalTo(6L));
+	}
+
+	@Test
+	public void testApiRequests(TestContext context) throws Exception {
+		Vertx vertx = Vertx.vertx();
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+		File file = new File(folder.getRoot(), "access.log");
+		CatalogService catalogService = mock(CatalogService.class);
+		doAnswer(invocation -> {
+			Product product = new Product();
+			product.setItemId(invocation.getArgument(0));
+			Handler<AsyncResult<Product>> handler = invocation.getArgument(1);
+			handler.handle(Future.succeededFuture(product));
+			return null;
+		}).when(catalogService).getProduct(any(), any());
+		JsonObject config = new JsonObject().put("catalog.http.port", port).put("catalog.accesslog.enabled", true)
+				.put("catalog.accesslog.file", file.getAbsolutePath());
+
+		Async async = context.async();
+		vertx.deployVerticle(new ApiVerticle(catalogService), new DeploymentOptions().setConfig(config),
+				context.asyncAssertSuccess(id -> {
+					vertx.createHttpClient().get(port, "localhost", "/product/123456").handler(response -> {
+						assertThat(response.statusCode(), equalTo(200));
+						response.endHandler(v -> vertx.undeploy(id, context.asyncAssertSuccess(undeployed -> {
+							String line = vertx.fileSystem().readFileBlocking(file.getAbsolutePath()).toString().trim();
+							assertThat(line, line.matches(LINE), equalTo(true));
+							assertThat(line.contains(" service=-"), equalTo(false));
+							vertx.close(context.asyncAssertSuccess(closed -> async.complete()));
+						})));
+					}).end();
+				}));
+	}
+}
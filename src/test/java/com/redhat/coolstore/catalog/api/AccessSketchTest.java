@@ -0,0 +1,64 @@
+package com.redhat.coolstore.catalog.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class AccessSketchTest {
+
+	@Test
+	public void testHeavyHitters() {
+		AccessSketch sketch = new AccessSketch(4096, 4, 100, 60000);
+		Set<String> hot = new HashSet<>();
+		for (int i = 0; i < 10; i++) {
+			hot.add("hot-" + i);
+		}
+		// many more distinct keys than the sketch has counters or candidates
+		for (int round = 0; round < 100; round++) {
+			for (int i = 0; i < 1000; i++) {
+				sketch.add("cold-" + (round * 1000 + i));
+			}
+			hot.forEach(key -> sketch.add(key));
+		}
+		assertThat(new HashSet<>(sketch.top(10)), equalTo(hot));
+		assertThat(sketch.toJson().getInteger("candidates"), equalTo(100));
+	}
+
+	@Test
+	public void testDecay() throws Exception {
+		AccessSketch sketch = new AccessSketch(1024, 4, 10, 50);
+		for (int i = 0; i < 100; i++) {
+			sketch.add("123456");
+		}
+		Thread.sleep(60);
+		// halved, then counted
+		assertThat(sketch.add("123456"), equalTo(51L));
+		assertThat(sketch.toJson(1).getJsonObject(0).getLong("count"), equalTo(51L));
+		assertThat(sketch.toJson().getLong("decays"), equalTo(1L));
+	}
+
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		AccessSketch sketch = new AccessSketch(1024, 4, 10, 60000);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 10000; i++) {
+					sketch.add("123456");
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// no update is lost
+		assertThat(sketch.add("123456", 0), equalTo(40000L));
+	}
+}
@@ -3,8 +3,13 @@ package com.redhat.coolstore.catalog.api;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.io.IOException;
@@ -22,6 +27,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import com.redhat.coolstore.catalog.model.Product;
+import com.redhat.coolstore.catalog.model.ProductCodec;
 import com.redhat.coolstore.catalog.verticle.service.CatalogService;
 
 import io.vertx.core.AsyncResult;
@@ -29,11 +35,14 @@ import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.serviceproxy.ServiceException;
 
 @RunWith(VertxUnitRunner.class)
 public class ApiVerticleTest {
@@ -160,6 +169,33 @@ public class ApiVerticleTest {
 				}).end();
 	}
 
+	@Test
+	public void testGetProductAsCbor(TestContext context) throws Exception {
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				Product product = new Product();
+				product.setItemId("123456");
+				product.setPrice(100.0);
+				Handler<AsyncResult<Product>> handler = invocation.getArgument(1);
+				handler.handle(Future.succeededFuture(product));
+				return null;
+			}
+		}).when(catalogService).getProduct(any(), any());
+
+		Async async = context.async();
+
+		vertx.createHttpClient().get(port, "localhost", "/product/123456").exceptionHandler(context.exceptionHandler())
+				.putHeader("Accept", "application/cbor").handler(response -> {
+					assertThat(response.statusCode(), equalTo(200));
+					assertThat(response.getHeader("content-type"), equalTo("application/cbor"));
+					response.bodyHandler(body -> {
+						Product product = ProductCodec.decodeProduct(body);
+						assertThat(product.getItemId(), equalTo("123456"));
+						async.complete();
+					});
+				}).end();
+	}
+
 	@Test
 	public void testGetNonExistingProduct(TestContext context) throws Exception {
 		// ----
@@ -209,4 +245,408 @@ public class ApiVerticleTest {
 				}).write(body).end();
 	}
 
+	@Test
+	public void testAddProductInvalidCbor(TestContext context) throws Exception {
+		Async async = context.async();
+		// an array of products, then a map with a reserved value
+		Buffer array = ProductCodec.encode(new ArrayList<>());
+		Buffer malformed = Buffer.buffer(new byte[] { (byte) 0xa1, 0x1c });
+		vertx.createHttpClient().post(port, "localhost", "/product").exceptionHandler(context.exceptionHandler())
+				.putHeader("Content-type", ProductCodec.CONTENT_TYPE).handler(first -> {
+					assertThat(first.statusCode(), equalTo(400));
+					vertx.createHttpClient().post(port, "localhost", "/product")
+							.exceptionHandler(context.exceptionHandler())
+							.putHeader("Content-type", ProductCodec.CONTENT_TYPE).handler(second -> {
+								assertThat(second.statusCode(), equalTo(400));
+								verify(catalogService, times(0)).addProduct(any(), any());
+								async.complete();
+							}).end(malformed);
+				}).end(array);
+	}
+
+	@Test
+	public void testDeleteProduct(TestContext context) throws Exception {
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				Handler<AsyncResult<Void>> handler = invocation.getArgument(1);
+				handler.handle(Future.succeededFuture());
+				return null;
+			}
+		}).when(catalogService).deleteProduct(any(), any());
+
+		Async async = context.async();
+
+		vertx.createHttpClient().delete(port, "localhost", "/product/123456").exceptionHandler(context.exceptionHandler())
+				.handler(response -> {
+					assertThat(response.statusCode(), equalTo(204));
+					verify(catalogService).deleteProduct(eq("123456"), any());
+					async.complete();
+				}).end();
+	}
+
+	@Test
+	public void testGetProductChanges(TestContext context) throws Exception {
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				JsonObject changes = new JsonObject()
+						.put("updated", new JsonArray().add(new JsonObject().put("itemId", "123456")))
+						.put("deleted", new JsonArray().add("654321")).put("next", "1500000000001:654321")
+						.put("more", false);
+				Handler<AsyncResult<JsonObject>> handler = invocation.getArgument(2);
+				handler.handle(Future.succeededFuture(changes));
+				return null;
+			}
+		}).when(catalogService).getProductChanges(any(), anyInt(), any());
+
+		Async async = context.async();
+
+		vertx.createHttpClient().get(port, "localhost", "/products/changes?since=1500000000000:111111&limit=10")
+				.exceptionHandler(context.exceptionHandler()).handler(response -> {
+					assertThat(response.statusCode(), equalTo(200));
+					response.bodyHandler(body -> {
+						JsonObject json = body.toJsonObject();
+						assertThat(json.getJsonArray("deleted").getString(0), equalTo("654321"));
+						assertThat(json.getString("next"), equalTo("1500000000001:654321"));
+						verify(catalogService).getProductChanges(eq("1500000000000:111111"), eq(10), any());
+						async.complete();
+					});
+				}).end();
+	}
+
+	@Test
+	public void testGetProductChangesInvalidLimit(TestContext context) throws Exception {
+		Async async = context.async();
+
+		vertx.createHttpClient().get(port, "localhost", "/products/changes?limit=0")
+				.exceptionHandler(context.exceptionHandler()).handler(response -> {
+					assertThat(response.statusCode(), equalTo(400));
+					async.complete();
+				}).end();
+	}
+
+	@Test
+	public void testProductEvents(TestContext context) throws Exception {
+		Async async = context.async();
+
+		vertx.createHttpClient().get(port, "localhost", "/products/events?itemIds=123456")
+				.exceptionHandler(context.exceptionHandler()).handler(response -> {
+					assertThat(response.statusCode(), equalTo(200));
+					assertThat(response.getHeader("content-type"), equalTo("text/event-stream"));
+					StringBuilder events = new StringBuilder();
+					response.handler(chunk -> {
+						events.append(chunk.toString());
+						if (events.indexOf("event: updated") >= 0 && events.indexOf("\n\n", events.indexOf("data:")) > 0) {
+							context.assertTrue(events.indexOf("id: 42") >= 0);
+							context.assertTrue(events.indexOf("\"itemId\":\"123456\"") >= 0);
+							context.assertTrue(events.indexOf("654321") < 0);
+							async.complete();
+						}
+					});
+					// only the subscribed product is pushed
+					vertx.setTimer(100, tid -> {
+						Product other = new Product();
+						other.setItemId("654321");
+						Product product = new Product();
+						product.setItemId("123456");
+						vertx.eventBus().publish(CatalogService.CHANGES_ADDRESS, other,
+								new DeliveryOptions().addHeader("action", "updated").addHeader("version", "41"));
+						vertx.eventBus().publish(CatalogService.CHANGES_ADDRESS, product,
+								new DeliveryOptions().addHeader("action", "updated").addHeader("version", "42"));
+					});
+				}).end();
+	}
+
+	@Test
+	public void testHotKeys(TestContext context) throws Exception {
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				Handler<AsyncResult<Product>> handler = invocation.getArgument(1);
+				handler.handle(Future.succeededFuture(null));
+				return null;
+			}
+		}).when(catalogService).getProduct(any(), any());
+
+		Async async = context.async();
+
+		vertx.createHttpClient().get(port, "localhost", "/product/123456").handler(first -> {
+			vertx.createHttpClient().get(port, "localhost", "/product/123456").handler(second -> {
+				vertx.createHttpClient().get(port, "localhost", "/product/654321").handler(third -> {
+					vertx.createHttpClient().get(port, "localhost", "/admin/hotkeys?limit=1")
+							.exceptionHandler(context.exceptionHandler()).handler(response -> {
+								assertThat(response.statusCode(), equalTo(200));
+								response.bodyHandler(body -> {
+									JsonArray keys = body.toJsonObject().getJsonArray("keys");
+									assertThat(keys.size(), equalTo(1));
+									assertThat(keys.getJsonObject(0).getString("itemId"), equalTo("123456"));
+									assertThat(keys.getJsonObject(0).getLong("count"), equalTo(2L));
+									async.complete();
+								});
+							}).end();
+				}).end();
+			}).end();
+		}).end();
+	}
+
+	@Test
+	public void testRateLimit(TestContext context) throws Exception {
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				Handler<AsyncResult<List<Product>>> handler = invocation.getArgument(0);
+				handler.handle(Future.succeededFuture(new ArrayList<>()));
+				return null;
+			}
+		}).when(catalogService).getProducts(any());
+		ServerSocket socket = new ServerSocket(0);
+		int limitedPort = socket.getLocalPort();
+		socket.close();
+		// a listing takes the whole bucket
+		JsonObject config = new JsonObject().put("catalog.http.port", limitedPort).put("catalog.ratelimit.enabled", true)
+				.put("catalog.ratelimit.capacity", 10L).put("catalog.ratelimit.rate", 1.0)
+				.put("catalog.ratelimit.cost.products", 10L)
+				.put("catalog.ratelimit.keys", new JsonArray().add("partner").add("other"));
+
+		Async async = context.async();
+
+		vertx.deployVerticle(new ApiVerticle(catalogService), new DeploymentOptions().setConfig(config),
+				context.asyncAssertSuccess(id -> {
+					vertx.createHttpClient().get(limitedPort, "localhost", "/products").putHeader("X-API-Key", "partner")
+							.handler(first -> {
+								assertThat(first.statusCode(), equalTo(200));
+								vertx.createHttpClient().get(limitedPort, "localhost", "/products")
+										.putHeader("X-API-Key", "partner").handler(second -> {
+											assertThat(second.statusCode(), equalTo(429));
+											assertThat(second.getHeader("Retry-After"), equalTo("10"));
+											// other clients are not limited
+											vertx.createHttpClient().get(limitedPort, "localhost", "/products")
+													.putHeader("X-API-Key", "other").handler(other -> {
+														assertThat(other.statusCode(), equalTo(200));
+														// unknown keys share the bucket of the IP address
+														vertx.createHttpClient().get(limitedPort, "localhost", "/products")
+																.putHeader("X-API-Key", "forged-1").handler(forged -> {
+																	assertThat(forged.statusCode(), equalTo(200));
+																	vertx.createHttpClient()
+																			.get(limitedPort, "localhost", "/products")
+																			.putHeader("X-API-Key", "forged-2")
+																			.handler(again -> {
+																				assertThat(again.statusCode(), equalTo(429));
+																				async.complete();
+																			}).end();
+																}).end();
+													}).end();
+										}).end();
+							}).end();
+				}));
+	}
+
+	@Test
+	public void testRateLimitBehindProxy(TestContext context) throws Exception {
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				Handler<AsyncResult<List<Product>>> handler = invocation.getArgument(0);
+				handler.handle(Future.succeededFuture(new ArrayList<>()));
+				return null;
+			}
+		}).when(catalogService).getProducts(any());
+		ServerSocket socket = new ServerSocket(0);
+		int limitedPort = socket.getLocalPort();
+		socket.close();
+		// the test client plays the router
+		JsonObject config = new JsonObject().put("catalog.http.port", limitedPort).put("catalog.ratelimit.enabled", true)
+				.put("catalog.ratelimit.capacity", 10L).put("catalog.ratelimit.rate", 1.0)
+				.put("catalog.ratelimit.cost.products", 10L)
+				.put("catalog.ratelimit.trusted.proxies", new JsonArray().add("127.0.0.1"));
+
+		Async async = context.async();
+
+		vertx.deployVerticle(new ApiVerticle(catalogService), new DeploymentOptions().setConfig(config),
+				context.asyncAssertSuccess(id -> {
+					vertx.createHttpClient().get(limitedPort, "127.0.0.1", "/products")
+							.putHeader("X-Forwarded-For", "203.0.113.5").handler(first -> {
+								assertThat(first.statusCode(), equalTo(200));
+								// another client behind the same router has its own bucket
+								vertx.createHttpClient().get(limitedPort, "127.0.0.1", "/products")
+										.putHeader("X-Forwarded-For", "203.0.113.6").handler(other -> {
+											assertThat(other.statusCode(), equalTo(200));
+											// addresses prepended by the client are not trusted
+											vertx.createHttpClient().get(limitedPort, "127.0.0.1", "/products")
+													.putHeader("X-Forwarded-For", "198.51.100.1, 203.0.113.5")
+													.handler(forged -> {
+														assertThat(forged.statusCode(), equalTo(429));
+														async.complete();
+													}).end();
+										}).end();
+							}).end();
+				}));
+	}
+
+	@Test
+	public void testProductsByPrice(TestContext context) throws Exception {
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				Product product = new Product();
+				product.setItemId("123456");
+				product.setPrice(5.0);
+				List<Product> products = new ArrayList<>();
+				products.add(product);
+				Handler<AsyncResult<List<Product>>> handler = invocation.getArgument(4);
+				handler.handle(Future.succeededFuture(products));
+				return null;
+			}
+		}).when(catalogService).getProductsByPrice(anyDouble(), anyDouble(), anyInt(), anyBoolean(), any());
+
+		Async async = context.async();
+
+		vertx.createHttpClient().get(port, "localhost", "/products?sort=-price&maxPrice=10&limit=5")
+				.exceptionHandler(context.exceptionHandler()).handler(response -> {
+					assertThat(response.statusCode(), equalTo(200));
+					response.bodyHandler(body -> {
+						assertThat(body.toJsonArray().getJsonObject(0).getString("itemId"), equalTo("123456"));
+						verify(catalogService).getProductsByPrice(eq(-Double.MAX_VALUE), eq(10.0), eq(5), eq(true), any());
+						vertx.createHttpClient().get(port, "localhost", "/products?sort=name").handler(invalid -> {
+							assertThat(invalid.statusCode(), equalTo(400));
+							vertx.createHttpClient().get(port, "localhost", "/products?minPrice=NaN").handler(nan -> {
+								assertThat(nan.statusCode(), equalTo(400));
+								vertx.createHttpClient().get(port, "localhost", "/products?maxPrice=Infinity")
+										.handler(infinite -> {
+											assertThat(infinite.statusCode(), equalTo(400));
+											verify(catalogService, times(1)).getProductsByPrice(anyDouble(), anyDouble(),
+													anyInt(), anyBoolean(), any());
+											async.complete();
+										}).end();
+							}).end();
+						}).end();
+					});
+				}).end();
+	}
+
+	@Test
+	public void testServiceOverloaded(TestContext context) throws Exception {
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				Handler<AsyncResult<Product>> handler = invocation.getArgument(1);
+				handler.handle(ServiceException.fail(503, "getProduct: too many concurrent requests"));
+				return null;
+			}
+		}).when(catalogService).getProduct(any(), any());
+
+		Async async = context.async();
+
+		vertx.createHttpClient().get(port, "localhost", "/product/123456").exceptionHandler(context.exceptionHandler())
+				.handler(response -> {
+					assertThat(response.statusCode(), equalTo(503));
+					assertThat(response.getHeader("Retry-After"), equalTo("1"));
+					async.complete();
+				}).end();
+	}
+
+	@Test
+	public void testStaleProductWhenServiceFails(TestContext context) throws Exception {
+		JsonObject json = new JsonObject().put("itemId", "123456").put("name", "productName")
+				.put("desc", "productDescription").put("price", 100.0);
+		// first call succeeds, the next ones fail as with an open circuit
+		boolean[] failing = new boolean[1];
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				Handler<AsyncResult<Product>> handler = invocation.getArgument(1);
+				if (failing[0]) {
+					handler.handle(ServiceException.fail(503, "Database unavailable, circuit open"));
+				} else {
+					failing[0] = true;
+					handler.handle(Future.succeededFuture(new Product(json)));
+				}
+				return null;
+			}
+		}).when(catalogService).getProduct(eq("123456"), any());
+
+		Async async = context.async();
+
+		vertx.createHttpClient().get(port, "localhost", "/product/123456").exceptionHandler(context.exceptionHandler())
+				.handler(first -> {
+					assertThat(first.statusCode(), equalTo(200));
+					assertThat(first.getHeader("Warning"), equalTo(null));
+					vertx.createHttpClient().get(port, "localhost", "/product/123456")
+							.exceptionHandler(context.exceptionHandler()).handler(response -> {
+								assertThat(response.statusCode(), equalTo(200));
+								assertThat(response.getHeader("Warning"), equalTo("110 - \"Response is Stale\""));
+								assertThat(response.getHeader("Age"), equalTo("0"));
+								response.bodyHandler(body -> {
+									assertThat(body.toJsonObject().getString("itemId"), equalTo("123456"));
+									async.complete();
+								});
+							}).end();
+				}).end();
+	}
+
+	@Test
+	public void testAdmissionLimit(TestContext context) throws Exception {
+		// a second verticle, with a single request allowed in flight
+		ServerSocket socket = new ServerSocket(0);
+		int limitedPort = socket.getLocalPort();
+		socket.close();
+		// the request left unanswered is not waited for on stop
+		DeploymentOptions options = new DeploymentOptions().setConfig(new JsonObject()
+				.put("catalog.http.port", limitedPort).put("catalog.admission.initial", 1).put("catalog.admission.max", 1)
+				.put("catalog.http.drain.timeout", 0L));
+		Async deployed = context.async();
+		vertx.deployVerticle(new ApiVerticle(catalogService), options, context.asyncAssertSuccess(id -> deployed.complete()));
+		deployed.await();
+
+		// the first request never gets a reply
+		doAnswer(invocation -> null).when(catalogService).getProduct(any(), any());
+
+		Async async = context.async();
+		vertx.createHttpClient().get(limitedPort, "localhost", "/product/111111").handler(response -> {
+		}).end();
+		vertx.setTimer(200, tid -> {
+			vertx.createHttpClient().get(limitedPort, "localhost", "/product/222222")
+					.exceptionHandler(context.exceptionHandler()).handler(response -> {
+						assertThat(response.statusCode(), equalTo(503));
+						assertThat(response.getHeader("Retry-After"), equalTo("1"));
+						async.complete();
+					}).end();
+		});
+	}
+
+	@Test
+	public void testDrain(TestContext context) throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		int drainedPort = socket.getLocalPort();
+		socket.close();
+		Async deployed = context.async();
+		String[] deploymentId = new String[1];
+		vertx.deployVerticle(new ApiVerticle(catalogService),
+				new DeploymentOptions().setConfig(new JsonObject().put("catalog.http.port", drainedPort)),
+				context.asyncAssertSuccess(id -> {
+					deploymentId[0] = id;
+					deployed.complete();
+				}));
+		deployed.await();
+
+		// the first request is answered once the instance is draining
+		List<Handler<AsyncResult<Product>>> pending = new ArrayList<>();
+		doAnswer(invocation -> {
+			pending.add(invocation.getArgument(1));
+			return null;
+		}).when(catalogService).getProduct(any(), any());
+
+		Async async = context.async(2);
+		vertx.createHttpClient().get(drainedPort, "localhost", "/product/111111")
+				.exceptionHandler(context.exceptionHandler()).handler(response -> {
+					assertThat(response.statusCode(), equalTo(200));
+					async.countDown();
+				}).end();
+		vertx.setTimer(200, tid -> {
+			vertx.undeploy(deploymentId[0], context.asyncAssertSuccess(undeployed -> async.countDown()));
+			vertx.setTimer(100, t -> vertx.createHttpClient().get(drainedPort, "localhost", "/product/222222")
+					.exceptionHandler(context.exceptionHandler()).handler(response -> {
+						// turned away, not waited for
+						assertThat(response.statusCode(), equalTo(503));
+						assertThat(response.getHeader("Connection"), equalTo("close"));
+						assertThat(pending.size(), equalTo(1));
+						Product product = new Product();
+						product.setItemId("111111");
+						pending.get(0).handle(Future.succeededFuture(product));
+					}).end());
+		});
+	}
 }
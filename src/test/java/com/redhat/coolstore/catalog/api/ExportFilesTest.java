@@ -0,0 +1,145 @@
+package com.redhat.coolstore.catalog.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import com.redhat.coolstore.catalog.verticle.service.CatalogService;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class ExportFilesTest {
+
+	private static final String CONTENT = "{\"itemId\":\"1\"}\n{\"itemId\":\"2\"}\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Vertx vertx;
+
+	private int port;
+
+	@Before
+	public void setUp(TestContext context) throws Exception {
+		vertx = Vertx.vertx();
+		vertx.exceptionHandler(context.exceptionHandler());
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+
+		File dir = folder.newFolder("exports");
+		Files.write(new File(dir, "products-1.ndjson").toPath(), CONTENT.getBytes(StandardCharsets.UTF_8));
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(gzipped)) {
+			gzip.write(CONTENT.getBytes(StandardCharsets.UTF_8));
+		}
+		Files.write(new File(dir, "products-1.ndjson.gz").toPath(), gzipped.toByteArray());
+		JsonObject manifest = new JsonObject().put("generation", 1L).put("products", 2).put("files",
+				new JsonObject().put("ndjson", new JsonObject().put("file", "products-1.ndjson")
+						.put("contentType", "application/x-ndjson").put("size", CONTENT.length()).put("etag", "\"v1\"")
+						.put("gzip", new JsonObject().put("file", "products-1.ndjson.gz")
+								.put("size", gzipped.size()).put("etag", "\"v1-gzip\""))));
+		Files.write(new File(dir, ExportFiles.MANIFEST).toPath(), manifest.toBuffer().getBytes());
+
+		JsonObject config = new JsonObject().put("catalog.http.port", port).put("catalog.export.enabled", true)
+				.put("catalog.export.dir", dir.getAbsolutePath());
+		vertx.deployVerticle(new ApiVerticle(mock(CatalogService.class)), new DeploymentOptions().setConfig(config),
+				context.asyncAssertSuccess());
+	}
+
+	@After
+	public void tearDown(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	@Test
+	public void testParseRange() {
+		assertThat(ExportFiles.parseRange("bytes=0-9", 100), equalTo(new long[] { 0, 9 }));
+		assertThat(ExportFiles.parseRange("bytes=90-", 100), equalTo(new long[] { 90, 99 }));
+		assertThat(ExportFiles.parseRange("bytes=90-200", 100), equalTo(new long[] { 90, 99 }));
+		assertThat(ExportFiles.parseRange("bytes=-10", 100), equalTo(new long[] { 90, 99 }));
+		assertThat(ExportFiles.parseRange("bytes=-200", 100), equalTo(new long[] { 0, 99 }));
+		assertThat(ExportFiles.parseRange("bytes=100-", 100)[0], equalTo(100L));
+		assertThat(ExportFiles.parseRange("bytes=9-0", 100), nullValue());
+		assertThat(ExportFiles.parseRange("bytes=0-1,5-6", 100), nullValue());
+		assertThat(ExportFiles.parseRange("items=0-1", 100), nullValue());
+	}
+
+	@Test
+	public void testGetFile(TestContext context) {
+		HttpClient client = vertx.createHttpClient();
+		Async async = context.async(5);
+		client.get(port, "localhost", "/products/export.ndjson", response -> {
+			assertThat(response.statusCode(), equalTo(200));
+			assertThat(response.getHeader("ETag"), equalTo("\"v1\""));
+			assertThat(response.getHeader("Content-Encoding"), nullValue());
+			response.bodyHandler(body -> {
+				assertThat(body.toString(), equalTo(CONTENT));
+				async.countDown();
+			});
+		}).end();
+		client.get(port, "localhost", "/products/export.ndjson", response -> {
+			assertThat(response.statusCode(), equalTo(206));
+			assertThat(response.getHeader("Content-Range"), equalTo("bytes 15-29/30"));
+			response.bodyHandler(body -> {
+				assertThat(body.toString(), equalTo("{\"itemId\":\"2\"}\n"));
+				async.countDown();
+			});
+		}).putHeader("Range", "bytes=15-").end();
+		client.get(port, "localhost", "/products/export.ndjson", response -> {
+			assertThat(response.statusCode(), equalTo(416));
+			assertThat(response.getHeader("Content-Range"), equalTo("bytes */30"));
+			async.countDown();
+		}).putHeader("Range", "bytes=30-").end();
+		client.get(port, "localhost", "/products/export.ndjson", response -> {
+			assertThat(response.statusCode(), equalTo(304));
+			async.countDown();
+		}).putHeader("If-None-Match", "\"v1\"").end();
+		client.get(port, "localhost", "/products/export.ndjson", response -> {
+			assertThat(response.statusCode(), equalTo(200));
+			assertThat(response.getHeader("Content-Encoding"), equalTo("gzip"));
+			assertThat(response.getHeader("ETag"), equalTo("\"v1-gzip\""));
+			async.countDown();
+		}).putHeader("Accept-Encoding", "gzip, deflate").end();
+	}
+
+	@Test
+	public void testManifestUpdates(TestContext context) {
+		HttpClient client = vertx.createHttpClient();
+		Async async = context.async();
+		client.getNow(port, "localhost", "/products/export.csv", missing -> {
+			assertThat(missing.statusCode(), equalTo(404));
+			JsonObject next = new JsonObject().put("generation", 2L).put("products", 0).put("files", new JsonObject());
+			vertx.eventBus().publish(CatalogService.EXPORTS_ADDRESS, next);
+			vertx.setTimer(100, tid -> client.getNow(port, "localhost", "/products/export", response -> {
+				assertThat(response.statusCode(), equalTo(200));
+				response.bodyHandler(body -> {
+					assertThat(body.toJsonObject(), equalTo(next));
+					async.complete();
+				});
+			}));
+		});
+	}
+}
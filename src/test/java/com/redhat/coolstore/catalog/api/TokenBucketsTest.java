@@ -0,0 +1,97 @@
+package com.redhat.coolstore.catalog.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import io.vertx.core.json.JsonObject;
+
+public class TokenBucketsTest {
+
+	@Test
+	public void testBucket() {
+		TokenBuckets buckets = new TokenBuckets(16, 10, 1);
+		assertThat(buckets.tryTake("a", 4), equalTo(0L));
+		assertThat(buckets.tryTake("a", 6), equalTo(0L));
+		// empty, one token per second
+		long wait = buckets.tryTake("a", 1);
+		assertThat(wait > 900 && wait <= 1000, equalTo(true));
+		// other clients have their own bucket
+		assertThat(buckets.tryTake("b", 10), equalTo(0L));
+	}
+
+	@Test
+	public void testRefill() throws Exception {
+		TokenBuckets buckets = new TokenBuckets(16, 10, 100);
+		assertThat(buckets.tryTake("a", 10), equalTo(0L));
+		assertThat(buckets.tryTake("a", 5) > 0, equalTo(true));
+		Thread.sleep(60);
+		assertThat(buckets.tryTake("a", 5), equalTo(0L));
+	}
+
+	@Test
+	public void testConfigure() {
+		TokenBuckets buckets = new TokenBuckets(16, 10, 100);
+		assertThat(buckets.tryTake("a", 10), equalTo(0L));
+		buckets.configure(new JsonObject().put("catalog.ratelimit.capacity", 5L).put("catalog.ratelimit.rate", 0.5));
+		// refills at the new rate
+		long wait = buckets.tryTake("a", 5);
+		assertThat(wait > 9000 && wait <= 10000, equalTo(true));
+		// up to the new capacity
+		assertThat(buckets.tryTake("b", 5), equalTo(0L));
+		assertThat(buckets.tryTake("b", 1) > 0, equalTo(true));
+	}
+
+	@Test
+	public void testExpiredSlotBeforeClient() throws Exception {
+		// as many slots as probes: every client probes the whole table
+		TokenBuckets buckets = new TokenBuckets(8, 10, 10);
+		for (int i = 0; i < 7; i++) {
+			buckets.tryTake("client-" + i, 1);
+		}
+		Thread.sleep(600);
+		assertThat(buckets.tryTake("a", 10), equalTo(0L));
+		// the other buckets are full again, the one of a is not
+		Thread.sleep(600);
+		assertThat(buckets.tryTake("a", 10) > 0, equalTo(true));
+		assertThat(buckets.tryTake("b", 10), equalTo(0L));
+	}
+
+	@Test
+	public void testBoundedTable() {
+		TokenBuckets buckets = new TokenBuckets(64, 10, 1);
+		for (int i = 0; i < 100000; i++) {
+			buckets.tryTake("client-" + i, 1);
+		}
+		assertThat(buckets.toJson().getInteger("slots"), equalTo(64));
+		assertThat(buckets.active(), equalTo(64));
+		assertThat(buckets.toJson().getLong("evictions") > 0, equalTo(true));
+	}
+
+	@Test
+	public void testConcurrentClients() throws Exception {
+		TokenBuckets buckets = new TokenBuckets(1024, 1000, 0.001);
+		AtomicInteger taken = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 1000; i++) {
+					if (buckets.tryTake("shared", 1) == 0) {
+						taken.incrementAndGet();
+					}
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// exactly the capacity, no token is taken twice
+		assertThat(taken.get(), equalTo(1000));
+	}
+}
@@ -0,0 +1,164 @@
+package com.redhat.coolstore.catalog.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import com.redhat.coolstore.catalog.model.Product;
+import com.redhat.coolstore.catalog.verticle.service.CatalogService;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class WarmUpTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Vertx vertx;
+	private int port;
+	private File file;
+	private CatalogService catalogService;
+
+	@Before
+	public void setUp() throws IOException {
+		vertx = Vertx.vertx();
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+		file = new File(folder.getRoot(), "hotkeys.json");
+		catalogService = mock(CatalogService.class);
+	}
+
+	@After
+	public void tearDown(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	private Product product(String itemId) {
+		Product product = new Product();
+		product.setItemId(itemId);
+		product.setName("Product " + itemId);
+		product.setPrice(10.0);
+		return product;
+	}
+
+	private void deploy(TestContext context, JsonObject config, Handler<String> handler) {
+		config.put("catalog.http.port", port).put("catalog.warmup.enabled", true).put("catalog.warmup.file",
+				file.getAbsolutePath());
+		vertx.deployVerticle(new ApiVerticle(catalogService), new DeploymentOptions().setConfig(config),
+				context.asyncAssertSuccess(handler));
+	}
+
+	private void readiness(TestContext context, Handler<Integer> handler) {
+		vertx.createHttpClient().get(port, "localhost", "/health/readiness").exceptionHandler(context.exceptionHandler())
+				.handler(response -> handler.handle(response.statusCode())).end();
+	}
+
+	private void answering() throws IOException {
+		Files.write(file.toPath(), new JsonObject()
+				.put("keys", new JsonArray().add(new JsonObject().put("itemId", "111111").put("count", 5))
+						.add(new JsonObject().put("itemId", "222222").put("count", 3)))
+				.encode().getBytes(StandardCharsets.UTF_8));
+		doAnswer(invocation -> {
+			Handler<AsyncResult<String>> handler = invocation.getArgument(0);
+			handler.handle(Future.succeededFuture("OK"));
+			return null;
+		}).when(catalogService).ping(any());
+		doAnswer(invocation -> {
+			Handler<AsyncResult<Product>> handler = invocation.getArgument(1);
+			handler.handle(Future.succeededFuture(product(invocation.getArgument(0))));
+			return null;
+		}).when(catalogService).getProduct(any(), any());
+		doAnswer(invocation -> {
+			Handler<AsyncResult<List<Product>>> handler = invocation.getArgument(0);
+			handler.handle(Future.succeededFuture(Arrays.asList(product("111111"), product("222222"))));
+			return null;
+		}).when(catalogService).getProducts(any());
+	}
+
+	@Test
+	public void testWarmUp(TestContext context) throws Exception {
+		answering();
+		Async async = context.async();
+		deploy(context, new JsonObject(), id -> vertx.setTimer(200, tid -> readiness(context, status -> {
+			assertThat(status, equalTo(200));
+			// both saved hot keys were read
+			verify(catalogService, times(2)).getProduct(any(), any());
+			vertx.createHttpClient().get(port, "localhost", "/products").exceptionHandler(context.exceptionHandler())
+					.handler(response -> response.bodyHandler(body -> {
+						assertThat(response.statusCode(), equalTo(200));
+						assertThat(body.toJsonArray().size(), equalTo(2));
+						// served from the response prebuilt during warm-up
+						verify(catalogService, times(1)).getProducts(any());
+						vertx.undeploy(id, context.asyncAssertSuccess(undeployed -> {
+							JsonObject saved = new JsonObject(vertx.fileSystem().readFileBlocking(file.getAbsolutePath()));
+							assertThat(saved.getJsonArray("keys").getJsonObject(0).getString("itemId"), equalTo("111111"));
+							async.complete();
+						}));
+					})).end();
+		})));
+	}
+
+	@Test
+	public void testScaledUp(TestContext context) throws Exception {
+		answering();
+		Async async = context.async();
+		deploy(context, new JsonObject(), first -> vertx.setTimer(200, tid -> deploy(context, new JsonObject(),
+				second -> readiness(context, status -> readiness(context, again -> {
+					// the instance deployed later is ready, without a warm-up of its own
+					assertThat(status, equalTo(200));
+					assertThat(again, equalTo(200));
+					verify(catalogService, times(2)).getProduct(any(), any());
+					vertx.undeploy(second, context.asyncAssertSuccess(v -> {
+						assertThat(file.delete(), equalTo(true));
+						// saved once more by the last instance
+						vertx.undeploy(first, context.asyncAssertSuccess(undeployed -> {
+							assertThat(file.exists(), equalTo(true));
+							async.complete();
+						}));
+					}));
+				})))));
+	}
+
+	@Test
+	public void testDeadline(TestContext context) {
+		// the catalog service never answers
+		Async async = context.async();
+		deploy(context, new JsonObject().put("catalog.warmup.deadline", 2000L), id -> readiness(context, before -> {
+			assertThat(before, equalTo(503));
+			vertx.setTimer(2500, tid -> readiness(context, after -> {
+				assertThat(after, equalTo(200));
+				async.complete();
+			}));
+		}));
+	}
+}
@@ -0,0 +1,79 @@
+package com.redhat.coolstore.catalog.model;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+
+public class ProductCodecTest {
+
+	private Product product(String itemId, double price) {
+		Product product = new Product();
+		product.setItemId(itemId);
+		product.setName("Forge Laptop Sticker");
+		product.setDesc("JBoss Community Forge Project Sticker");
+		product.setPrice(price);
+		return product;
+	}
+
+	@Test
+	public void testRoundTripProduct() {
+		Product decoded = ProductCodec.decodeProduct(ProductCodec.encode(product("329199", 8.50)));
+		assertThat(decoded.getItemId(), equalTo("329199"));
+		assertThat(decoded.getName(), equalTo("Forge Laptop Sticker"));
+		assertThat(decoded.getDesc(), equalTo("JBoss Community Forge Project Sticker"));
+		assertEquals(8.50d, decoded.getPrice(), 0);
+	}
+
+	@Test
+	public void testRoundTripNullFields() {
+		Product product = new Product();
+		product.setItemId("329199");
+		Product decoded = ProductCodec.decodeProduct(ProductCodec.encode(product));
+		assertThat(decoded.getItemId(), equalTo("329199"));
+		assertNull(decoded.getName());
+		assertNull(decoded.getDesc());
+	}
+
+	@Test(expected = DecodeException.class)
+	public void testDecodeProductNotAMap() {
+		ProductCodec.decodeProduct(ProductCodec.encode(new ArrayList<>()));
+	}
+
+	@Test
+	public void testRoundTripProductList() {
+		List<Product> products = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			products.add(product(Integer.toString(100000 + i), i));
+		}
+		Buffer encoded = ProductCodec.encode(products);
+		List<Product> decoded = ProductCodec.decodeProducts(encoded);
+		assertEquals(100, decoded.size());
+		assertThat(decoded.get(42).getItemId(), equalTo("100042"));
+		assertEquals(42d, decoded.get(42).getPrice(), 0);
+
+		JsonArray json = new JsonArray();
+		products.forEach(p -> json.add(p.toJson()));
+		assertTrue(encoded.length() < json.encode().length());
+	}
+
+	@Test
+	public void testWireFormat() {
+		ProductCodec codec = new ProductCodec();
+		Buffer wire = Buffer.buffer().appendByte((byte) 7);
+		codec.encodeToWire(wire, product("329199", 8.50));
+		Product decoded = codec.decodeFromWire(1, wire);
+		assertThat(decoded.getItemId(), equalTo("329199"));
+		assertEquals(8.50d, decoded.getPrice(), 0);
+	}
+}
@@ -0,0 +1,125 @@
+package com.redhat.coolstore.catalog.verticle;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.function.Predicate;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class MainVerticleTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Vertx vertx;
+
+	private int port;
+
+	private File tuning;
+
+	@Before
+	public void setUp(TestContext context) throws Exception {
+		vertx = Vertx.vertx();
+		vertx.exceptionHandler(context.exceptionHandler());
+		ServerSocket socket = new ServerSocket(0);
+		port = socket.getLocalPort();
+		socket.close();
+
+		tuning = folder.newFile("tuning.json");
+		write(new JsonObject().put("catalog.admission.max", 50));
+		JsonObject config = new JsonObject().put("catalog.http.port", port).put("catalog.store.type", "file")
+				.put("catalog.store.file.path", new File(folder.getRoot(), "products.jsonl").getAbsolutePath())
+				.put("catalog.start.delay", 0L).put("catalog.config.file", tuning.getAbsolutePath())
+				.put("catalog.config.scan.period", 50L);
+		vertx.deployVerticle(new MainVerticle(), new DeploymentOptions().setConfig(config),
+				context.asyncAssertSuccess());
+	}
+
+	@After
+	public void tearDown(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	private void write(JsonObject config) throws Exception {
+		Files.write(tuning.toPath(), config.toBuffer().getBytes());
+	}
+
+	// polls the stats until they match
+	private void awaitStats(HttpClient client, Predicate<JsonObject> condition, Handler<JsonObject> handler) {
+		client.getNow(port, "localhost", "/admin/stats", response -> response.bodyHandler(body -> {
+			JsonObject stats = body.toJsonObject();
+			if (condition.test(stats)) {
+				handler.handle(stats);
+			} else {
+				vertx.setTimer(50, tid -> awaitStats(client, condition, handler));
+			}
+		}));
+	}
+
+	@Test
+	public void testLiveChanges(TestContext context) {
+		HttpClient client = vertx.createHttpClient();
+		Async async = context.async();
+		awaitStats(client, stats -> true, initial -> {
+			assertThat(initial.getJsonObject("api").getJsonObject("admission").getInteger("maxLimit"), equalTo(50));
+			assertThat(initial.getJsonObject("config").getInteger("instances"), equalTo(1));
+			long reloads = initial.getJsonObject("config").getLong("reloads");
+			try {
+				write(new JsonObject().put("catalog.admission.max", 7).put("catalog.http.instances", 2)
+						.put("catalog.http.port", 1).put("password", "s3cret"));
+			} catch (Exception e) {
+				context.fail(e);
+			}
+			awaitStats(client, stats -> stats.getJsonObject("config").getInteger("instances") == 2, scaled -> {
+				JsonObject changes = scaled.getJsonObject("config");
+				assertThat(changes.getLong("reloads"), equalTo(reloads + 1));
+				assertThat(changes.getJsonArray("pendingRestart").contains("catalog.http.port"), equalTo(true));
+				assertThat(changes.getJsonObject("last").getJsonObject("changes").getJsonObject("catalog.admission.max"),
+						equalTo(new JsonObject().put("from", 50).put("to", 7).put("live", true)));
+				// the settings read on start only are reported by name
+				assertThat(changes.getJsonObject("last").getJsonObject("changes").getJsonObject("password"),
+						equalTo(new JsonObject().put("live", false)));
+				assertThat(scaled.encode().contains("s3cret"), equalTo(false));
+				// either instance answers, both apply the new limit
+				assertThat(scaled.getJsonObject("api").getJsonObject("admission").getInteger("maxLimit"), equalTo(7));
+				try {
+					write(new JsonObject().put("catalog.admission.max", 7).put("catalog.http.port", 1));
+				} catch (Exception e) {
+					context.fail(e);
+				}
+				awaitStats(client, stats -> stats.getJsonObject("config").getInteger("instances") == 1, v -> {
+					// the password is back to the value in effect
+					assertThat(v.getJsonObject("config").getJsonArray("pendingRestart"),
+							equalTo(new JsonArray().add("catalog.http.port")));
+					client.getNow(port, "localhost", "/products", response -> {
+						assertThat(response.statusCode(), equalTo(200));
+						response.bodyHandler(body -> {
+							assertThat(body.toJsonArray(), equalTo(new JsonArray()));
+							async.complete();
+						});
+					});
+				});
+			});
+		});
+	}
+}
@@ -0,0 +1,81 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class BlockingStoreAdapterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Vertx vertx;
+
+	private JsonObject config;
+
+	@Before
+	public void setUp() throws Exception {
+		vertx = Vertx.vertx();
+		config = new JsonObject().put("catalog.store.file.path", folder.newFile().getAbsolutePath());
+	}
+
+	@After
+	public void tearDown(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	private void saveAndFind(TestContext context, BlockingStoreAdapter store) {
+		Context eventLoop = vertx.getOrCreateContext();
+		Async async = context.async();
+		eventLoop.runOnContext(v -> store.open(context.asyncAssertSuccess(opened -> {
+			JsonObject document = new JsonObject().put("_id", "123456").put("itemId", "123456").put("price", 10.0);
+			store.save(document, context.asyncAssertSuccess(saved -> {
+				// results come back on the context of the caller
+				assertThat(Vertx.currentContext(), equalTo(eventLoop));
+				store.findProduct("123456", context.asyncAssertSuccess(found -> {
+					assertThat(Vertx.currentContext(), equalTo(eventLoop));
+					assertThat(found.getDouble("price"), equalTo(10.0));
+					assertThat(store.stats().getLong("calls"), equalTo(3L));
+					store.close(context.asyncAssertSuccess(closed -> async.complete()));
+				}));
+			}));
+		})));
+	}
+
+	@Test
+	public void testWorkerPool(TestContext context) {
+		BlockingStoreAdapter store = new BlockingStoreAdapter(vertx, new FileProductStore(config), config);
+		assertThat(store.stats().getString("executor"), equalTo("worker"));
+		saveAndFind(context, store);
+	}
+
+	@Test
+	public void testVirtualThreads(TestContext context) {
+		config.put("catalog.store.executor", "virtual");
+		BlockingStoreAdapter store = new BlockingStoreAdapter(vertx, new FileProductStore(config), config);
+		// falls back to the worker pool on JVMs without virtual threads
+		assertThat(store.usesVirtualThreads(), equalTo(BlockingStoreAdapter.newVirtualThreadExecutor() != null));
+		saveAndFind(context, store);
+	}
+
+	@Test
+	public void testFailure(TestContext context) {
+		BlockingStoreAdapter store = new BlockingStoreAdapter(vertx, new FileProductStore(config), config);
+		// not opened
+		store.ping(context.asyncAssertFailure());
+	}
+}
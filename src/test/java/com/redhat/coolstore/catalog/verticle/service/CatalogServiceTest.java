@@ -209,4 +209,49 @@ public class CatalogServiceTest extends MongoTestBase {
 		});
 	}
 
+	@Test
+	public void testGetProductChanges(TestContext context) throws Exception {
+		// writes are reported at once
+		CatalogService service = new CatalogServiceImpl(vertx, getConfig().put("catalog.changes.lag", 0L),
+				mongoClient);
+
+		Async added = context.async(2);
+		for (String itemId : new String[] { "00001", "00002" }) {
+			Product product = new Product();
+			product.setItemId(itemId);
+			product.setName("Name-" + itemId);
+			product.setPrice(100.0);
+			service.addProduct(product, ar -> {
+				context.assertTrue(ar.succeeded());
+				added.countDown();
+			});
+		}
+		added.await();
+
+		Async firstPage = context.async();
+		service.getProductChanges(null, 1, ar -> {
+			context.assertTrue(ar.succeeded());
+			JsonObject page = ar.result();
+			assertEquals(1, page.getJsonArray("updated").size());
+			assertEquals(true, page.getBoolean("more"));
+			String next = page.getString("next");
+
+			service.deleteProduct("00001", ar1 -> {
+				context.assertTrue(ar1.succeeded());
+				service.getProductChanges(next, 10, ar2 -> {
+					context.assertTrue(ar2.succeeded());
+					JsonObject changes = ar2.result();
+					assertEquals(1, changes.getJsonArray("updated").size());
+					assertEquals("00002", changes.getJsonArray("updated").getJsonObject(0).getString("itemId"));
+					assertEquals("00001", changes.getJsonArray("deleted").getString(0));
+					assertEquals(false, changes.getBoolean("more"));
+					service.getProduct("00001", ar3 -> {
+						assertNull(ar3.result());
+						firstPage.complete();
+					});
+				});
+			});
+		});
+	}
+
 }
@@ -0,0 +1,171 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.serviceproxy.ServiceException;
+
+@RunWith(VertxUnitRunner.class)
+public class CircuitBreakerTest {
+
+	private Vertx vertx;
+
+	private boolean databaseUp;
+
+	private CircuitBreaker breaker;
+
+	@Before
+	public void setUp() {
+		vertx = Vertx.vertx();
+		databaseUp = true;
+		JsonObject config = new JsonObject().put("catalog.breaker.window.size", 10)
+				.put("catalog.breaker.minimum.calls", 4).put("catalog.breaker.probe.interval", 50L);
+		breaker = new CircuitBreaker(vertx, config, h -> h.handle(databaseUp ? Future.succeededFuture()
+				: Future.failedFuture("connection refused")));
+	}
+
+	@After
+	public void tearDown(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	private void call() {
+		breaker.<JsonObject>execute(
+				h -> h.handle(databaseUp ? Future.succeededFuture() : Future.failedFuture("connection refused")),
+				ar -> {
+				});
+	}
+
+	@Test
+	public void testStaysClosedOnSuccess() {
+		for (int i = 0; i < 20; i++) {
+			call();
+		}
+		assertThat(breaker.isOpen(), equalTo(false));
+	}
+
+	@Test
+	public void testStaysClosedBelowMinimumCalls() {
+		databaseUp = false;
+		for (int i = 0; i < 3; i++) {
+			call();
+		}
+		assertThat(breaker.isOpen(), equalTo(false));
+	}
+
+	@Test
+	public void testOpensOnFailureRate(TestContext context) {
+		for (int i = 0; i < 5; i++) {
+			call();
+		}
+		databaseUp = false;
+		for (int i = 0; i < 5; i++) {
+			call();
+		}
+		assertThat(breaker.isOpen(), equalTo(true));
+		assertThat(breaker.toJson().getLong("opened"), equalTo(1L));
+
+		// fails fast, without calling the database
+		breaker.<JsonObject>execute(h -> context.fail("called while open"), ar -> {
+			assertThat(ar.failed(), equalTo(true));
+			assertThat(ar.cause(), instanceOf(ServiceException.class));
+			assertThat(((ServiceException) ar.cause()).failureCode(), equalTo(503));
+		});
+	}
+
+	@Test
+	public void testProbeClosesCircuit(TestContext context) {
+		databaseUp = false;
+		for (int i = 0; i < 4; i++) {
+			call();
+		}
+		assertThat(breaker.isOpen(), equalTo(true));
+
+		Async async = context.async();
+		// probes keep failing while the database is down
+		vertx.setTimer(200, t1 -> {
+			assertThat(breaker.isOpen(), equalTo(true));
+			databaseUp = true;
+			vertx.setTimer(200, t2 -> {
+				assertThat(breaker.isOpen(), equalTo(false));
+				assertThat(breaker.toJson().getInteger("calls"), equalTo(0));
+				async.complete();
+			});
+		});
+	}
+
+	@Test
+	public void testOpensOnTimeouts(TestContext context) {
+		CircuitBreaker hanging = new CircuitBreaker(vertx, new JsonObject().put("catalog.breaker.minimum.calls", 4)
+				.put("catalog.breaker.call.timeout", 50L), h -> {
+				});
+		Async async = context.async(4);
+		vertx.runOnContext(v -> {
+			// the database never answers
+			for (int i = 0; i < 4; i++) {
+				hanging.<JsonObject>execute(h -> {
+				}, ar -> {
+					assertThat(((ServiceException) ar.cause()).failureCode(), equalTo(503));
+					async.countDown();
+				});
+			}
+			assertThat(hanging.isOpen(), equalTo(false));
+		});
+		async.await();
+		assertThat(hanging.isOpen(), equalTo(true));
+	}
+
+	@Test
+	public void testOneProbeAtATime(TestContext context) {
+		int[] probes = { 0 };
+		CircuitBreaker hanging = new CircuitBreaker(vertx,
+				new JsonObject().put("catalog.breaker.minimum.calls", 1).put("catalog.breaker.probe.interval", 20L)
+						.put("catalog.breaker.call.timeout", 1000L),
+				h -> probes[0]++);
+		Async async = context.async();
+		vertx.runOnContext(v -> {
+			hanging.<JsonObject>execute(h -> h.handle(Future.failedFuture("connection refused")), ar -> {
+			});
+			assertThat(hanging.isOpen(), equalTo(true));
+			// the first probe hangs, the next ones are skipped until it times out
+			vertx.setTimer(300, tid -> {
+				assertThat(probes[0], equalTo(1));
+				async.complete();
+			});
+		});
+	}
+
+	// the handler of a call made before the circuit opened
+	@Test
+	public void testLateResultIgnoredWhileOpen() {
+		Handler<AsyncResult<JsonObject>>[] pending = newHandlerArray();
+		breaker.<JsonObject>execute(h -> pending[0] = h, ar -> {
+		});
+		databaseUp = false;
+		for (int i = 0; i < 4; i++) {
+			call();
+		}
+		assertThat(breaker.isOpen(), equalTo(true));
+		pending[0].handle(Future.failedFuture("late"));
+		assertThat(breaker.toJson().getInteger("calls"), equalTo(4));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Handler<AsyncResult<JsonObject>>[] newHandlerArray() {
+		return new Handler[1];
+	}
+}
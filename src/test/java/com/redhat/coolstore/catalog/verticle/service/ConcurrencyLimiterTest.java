@@ -0,0 +1,94 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.vertx.core.json.JsonObject;
+
+public class ConcurrencyLimiterTest {
+
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(500);
+
+	@Test
+	public void testRejectsBeyondLimit() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10, 100);
+		assertTrue(limiter.tryAcquire());
+		assertTrue(limiter.tryAcquire());
+		assertFalse(limiter.tryAcquire());
+		limiter.cancel();
+		assertTrue(limiter.tryAcquire());
+	}
+
+	@Test
+	public void testGrowsWhenSaturatedAndFast() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 10, 100);
+		for (int i = 0; i < 100; i++) {
+			while (limiter.tryAcquire()) {
+			}
+			while (limiter.getInFlight() > 0) {
+				limiter.release(FAST, false);
+			}
+		}
+		assertEquals(10, limiter.getLimit());
+	}
+
+	@Test
+	public void testDoesNotGrowWhenIdle() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 1, 10, 100);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(limiter.tryAcquire());
+			limiter.release(FAST, false);
+		}
+		assertEquals(4, limiter.getLimit());
+	}
+
+	@Test
+	public void testShrinksOnSlowOrFailedCalls() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 2, 10, 100);
+		limiter.tryAcquire();
+		limiter.release(SLOW, false);
+		assertEquals(9, limiter.getLimit());
+		limiter.tryAcquire();
+		limiter.release(FAST, true);
+		assertEquals(8, limiter.getLimit());
+		for (int i = 0; i < 100; i++) {
+			limiter.tryAcquire();
+			limiter.release(SLOW, false);
+		}
+		assertEquals(2, limiter.getLimit());
+	}
+
+	@Test
+	public void testPerMethodSettings() {
+		JsonObject config = new JsonObject().put("catalog.limits.max", 50).put("catalog.limits.getProducts.max", 5)
+				.put("catalog.limits.initial", 40);
+		assertEquals(5, ConcurrencyLimiter.create(config, "catalog.limits", "getProducts").getLimit());
+		assertEquals(40, ConcurrencyLimiter.create(config, "catalog.limits", "getProduct").getLimit());
+	}
+
+	@Test
+	public void testConfigure() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 20, 100);
+		for (int i = 0; i < 10; i++) {
+			assertTrue(limiter.tryAcquire());
+		}
+		// the requests in flight beyond the new limit complete, new ones wait
+		limiter.configure(new JsonObject().put("catalog.limits.max", 4), "catalog.limits", "getProducts");
+		assertEquals(4, limiter.getLimit());
+		assertFalse(limiter.tryAcquire());
+		for (int i = 0; i < 7; i++) {
+			limiter.cancel();
+		}
+		assertTrue(limiter.tryAcquire());
+		// a higher maximum leaves the limit to grow
+		limiter.configure(1, 50, 100);
+		assertEquals(4, limiter.getLimit());
+		assertEquals(50, (int) limiter.toJson().getInteger("maxLimit"));
+	}
+}
@@ -0,0 +1,139 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.vertx.core.json.JsonObject;
+
+public class FileProductStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	private FileProductStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		file = new File(folder.getRoot(), "products.jsonl");
+		store = open();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		store.close();
+	}
+
+	private FileProductStore open() throws Exception {
+		FileProductStore store = new FileProductStore(
+				new JsonObject().put("catalog.store.file.path", file.getAbsolutePath()));
+		store.open();
+		return store;
+	}
+
+	private JsonObject document(String id, long version) {
+		return new JsonObject().put("_id", id).put("itemId", id).put("name", "Product " + id).put("price", 10.0)
+				.put(CatalogServiceImpl.VERSION_FIELD, version);
+	}
+
+	private JsonObject tombstone(String id, long version) {
+		return new JsonObject().put("_id", id).put("itemId", id).put(CatalogServiceImpl.DELETED_FIELD, true)
+				.put(CatalogServiceImpl.VERSION_FIELD, version);
+	}
+
+	@Test
+	public void testFindProducts() throws Exception {
+		store.saveAll(Arrays.asList(document("111111", 1), document("222222", 2), document("333333", 3)));
+		store.save(tombstone("222222", 4));
+
+		assertThat(store.findProducts().size(), equalTo(2));
+		assertThat(store.findProduct("111111").getString("name"), equalTo("Product 111111"));
+		assertThat(store.findProduct("222222"), nullValue());
+		assertThat(store.findProduct("444444"), nullValue());
+	}
+
+	@Test
+	public void testFindChanges() throws Exception {
+		// written before versioning, sorts first
+		store.save(new JsonObject().put("_id", "000000").put("itemId", "000000"));
+		store.saveAll(Arrays.asList(document("111111", 5), document("222222", 5), document("333333", 7)));
+		store.save(tombstone("111111", 8));
+
+		List<JsonObject> page = store.findChanges(0, "", 2);
+		assertThat(page.size(), equalTo(2));
+		assertThat(page.get(0).getString("_id"), equalTo("000000"));
+		assertThat(page.get(1).getString("_id"), equalTo("222222"));
+
+		page = store.findChanges(5, "222222", 10);
+		assertThat(page.size(), equalTo(2));
+		assertThat(page.get(0).getString("_id"), equalTo("333333"));
+		assertThat(page.get(1).getBoolean(CatalogServiceImpl.DELETED_FIELD), equalTo(true));
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		store.save(document("111111", 1));
+		store.save(document("111111", 2));
+		store.save(document("111111", 3));
+		store.save(document("222222", 4));
+		store.close();
+		// a torn write at the end of the file
+		Files.write(file.toPath(), "{\"_id\":\"333".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		store = open();
+		assertThat(store.findProducts().size(), equalTo(2));
+		assertThat(store.findProduct("111111").getLong(CatalogServiceImpl.VERSION_FIELD), equalTo(3L));
+		// compacted to one line per document
+		assertThat(Files.readAllLines(file.toPath()).size(), equalTo(2));
+	}
+
+	@Test
+	public void testSkipsCorruptLine() throws Exception {
+		store.save(document("111111", 1));
+		store.close();
+		// a partial write, joined by the next append
+		Files.write(file.toPath(), "{\"_id\":\"333".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+		Files.write(file.toPath(), (document("222222", 2).encode() + "\n").getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+		Files.write(file.toPath(), (document("444444", 3).encode() + "\n").getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+
+		store = open();
+		assertThat(store.findProducts().size(), equalTo(2));
+		assertThat(store.findProduct("444444").getLong(CatalogServiceImpl.VERSION_FIELD), equalTo(3L));
+		// the corrupt line is compacted away
+		assertThat(Files.readAllLines(file.toPath()).size(), equalTo(2));
+	}
+
+	@Test
+	public void testCompactsWhileRunning() throws Exception {
+		store.close();
+		store = new FileProductStore(new JsonObject().put("catalog.store.file.path", file.getAbsolutePath())
+				.put("catalog.store.file.compact.min.size", 1000L));
+		store.open();
+		for (long version = 1; version <= 100; version++) {
+			store.save(document("111111", version));
+		}
+		assertThat(file.length() < 1000, equalTo(true));
+		assertThat(new File(folder.getRoot(), "products.jsonl.compact").exists(), equalTo(false));
+		store.close();
+
+		store = open();
+		assertThat(store.findProduct("111111").getLong(CatalogServiceImpl.VERSION_FIELD), equalTo(100L));
+	}
+}
@@ -0,0 +1,186 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.AsyncMap;
+import io.vertx.core.shareddata.Counter;
+import io.vertx.core.shareddata.Lock;
+import io.vertx.core.spi.cluster.AsyncMultiMap;
+import io.vertx.core.spi.cluster.ChoosableIterable;
+import io.vertx.core.spi.cluster.ClusterManager;
+import io.vertx.core.spi.cluster.NodeListener;
+
+/**
+ * Cluster manager joining the Vert.x instances of a single JVM, so that the
+ * clustered event bus can be tested without a cluster manager dependency. Only
+ * what the event bus needs is supported: multimaps, sync maps and membership.
+ */
+public class LocalClusterManager implements ClusterManager {
+
+	private static final Map<String, LocalClusterManager> NODES = new ConcurrentHashMap<>();
+
+	private static final Map<String, LocalMultiMap<?, ?>> MULTI_MAPS = new ConcurrentHashMap<>();
+
+	private static final Map<String, Map<?, ?>> SYNC_MAPS = new ConcurrentHashMap<>();
+
+	private final String nodeId = UUID.randomUUID().toString();
+
+	private Vertx vertx;
+
+	private volatile NodeListener listener;
+
+	private volatile boolean active;
+
+	@Override
+	public void setVertx(Vertx vertx) {
+		this.vertx = vertx;
+	}
+
+	private <T> void complete(Handler<AsyncResult<T>> handler, T result) {
+		vertx.getOrCreateContext().runOnContext(v -> handler.handle(Future.succeededFuture(result)));
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <K, V> void getAsyncMultiMap(String name, Handler<AsyncResult<AsyncMultiMap<K, V>>> handler) {
+		complete(handler, (AsyncMultiMap<K, V>) MULTI_MAPS.computeIfAbsent(name, n -> new LocalMultiMap<>()));
+	}
+
+	@Override
+	public <K, V> void getAsyncMap(String name, Handler<AsyncResult<AsyncMap<K, V>>> handler) {
+		handler.handle(Future.failedFuture(new UnsupportedOperationException("Not supported by " + getClass().getSimpleName())));
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <K, V> Map<K, V> getSyncMap(String name) {
+		return (Map<K, V>) SYNC_MAPS.computeIfAbsent(name, n -> new ConcurrentHashMap<>());
+	}
+
+	@Override
+	public void getLockWithTimeout(String name, long timeout, Handler<AsyncResult<Lock>> handler) {
+		handler.handle(Future.failedFuture(new UnsupportedOperationException("Not supported by " + getClass().getSimpleName())));
+	}
+
+	@Override
+	public void getCounter(String name, Handler<AsyncResult<Counter>> handler) {
+		handler.handle(Future.failedFuture(new UnsupportedOperationException("Not supported by " + getClass().getSimpleName())));
+	}
+
+	@Override
+	public String getNodeID() {
+		return nodeId;
+	}
+
+	@Override
+	public List<String> getNodes() {
+		return new ArrayList<>(NODES.keySet());
+	}
+
+	@Override
+	public void nodeListener(NodeListener listener) {
+		this.listener = listener;
+	}
+
+	@Override
+	public void join(Handler<AsyncResult<Void>> handler) {
+		active = true;
+		NODES.values().forEach(node -> {
+			if (node.listener != null) {
+				node.listener.nodeAdded(nodeId);
+			}
+		});
+		NODES.put(nodeId, this);
+		complete(handler, null);
+	}
+
+	@Override
+	public void leave(Handler<AsyncResult<Void>> handler) {
+		active = false;
+		NODES.remove(nodeId);
+		NODES.values().forEach(node -> {
+			if (node.listener != null) {
+				node.listener.nodeLeft(nodeId);
+			}
+		});
+		complete(handler, null);
+	}
+
+	@Override
+	public boolean isActive() {
+		return active;
+	}
+
+	private class LocalMultiMap<K, V> implements AsyncMultiMap<K, V> {
+
+		private final Map<K, CopyOnWriteArrayList<V>> entries = new ConcurrentHashMap<>();
+
+		@Override
+		public void add(K key, V value, Handler<AsyncResult<Void>> handler) {
+			CopyOnWriteArrayList<V> values = entries.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>());
+			values.addIfAbsent(value);
+			complete(handler, null);
+		}
+
+		@Override
+		public void get(K key, Handler<AsyncResult<ChoosableIterable<V>>> handler) {
+			List<V> values = entries.get(key);
+			complete(handler, new RoundRobin<>(values == null ? new ArrayList<>() : new ArrayList<>(values)));
+		}
+
+		@Override
+		public void remove(K key, V value, Handler<AsyncResult<Boolean>> handler) {
+			List<V> values = entries.get(key);
+			complete(handler, values != null && values.remove(value));
+		}
+
+		@Override
+		public void removeAllForValue(V value, Handler<AsyncResult<Void>> handler) {
+			removeAllMatching(value::equals, handler);
+		}
+
+		@Override
+		public void removeAllMatching(Predicate<V> predicate, Handler<AsyncResult<Void>> handler) {
+			entries.values().forEach(values -> values.removeIf(predicate));
+			complete(handler, null);
+		}
+	}
+
+	private static class RoundRobin<V> implements ChoosableIterable<V> {
+
+		private static final AtomicInteger next = new AtomicInteger();
+
+		private final List<V> values;
+
+		RoundRobin(List<V> values) {
+			this.values = values;
+		}
+
+		@Override
+		public Iterator<V> iterator() {
+			return values.iterator();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return values.isEmpty();
+		}
+
+		@Override
+		public V choose() {
+			return values.isEmpty() ? null : values.get(Math.abs(next.getAndIncrement() % values.size()));
+		}
+	}
+}
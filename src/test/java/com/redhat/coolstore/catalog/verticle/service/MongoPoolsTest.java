@@ -0,0 +1,106 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.async.client.MongoClientSettings;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.impl.config.MongoClientOptionsParser;
+
+public class MongoPoolsTest {
+
+	@Test
+	public void testClientConfig() {
+		JsonObject config = new JsonObject().put("host", "localhost").put("port", 27017)
+				.put("catalog.mongo.pool.max.size", 20).put("catalog.request.timeout", 3000L);
+		JsonObject clientConfig = MongoPools.clientConfig(config, "secondaryPreferred");
+		assertThat(clientConfig.getString("readPreference"), equalTo("secondaryPreferred"));
+		assertThat(clientConfig.getInteger("maxPoolSize"), equalTo(20));
+		assertThat(clientConfig.getLong("waitQueueTimeoutMS"), equalTo(3000L));
+		assertThat(clientConfig.getInteger("connectTimeoutMS"), equalTo(10000));
+		assertThat(MongoPools.maxPoolSize(clientConfig), equalTo(20));
+	}
+
+	@Test
+	public void testConnectionStringSettings() {
+		// the driver ignores the pool and socket options next to a connection string
+		JsonObject config = new JsonObject().put("connection_string", "mongodb://localhost:27017")
+				.put("catalog.mongo.pool.max.size", 20).put("catalog.mongo.pool.min.size", 2)
+				.put("catalog.request.timeout", 3000L).put("catalog.mongo.socket.timeout", 4000);
+		MongoClientSettings settings = new MongoClientOptionsParser(MongoPools.clientConfig(config, "secondaryPreferred"))
+				.settings();
+		assertThat(settings.getConnectionPoolSettings().getMaxSize(), equalTo(20));
+		assertThat(settings.getConnectionPoolSettings().getMinSize(), equalTo(2));
+		assertThat(settings.getConnectionPoolSettings().getMaxWaitTime(TimeUnit.MILLISECONDS), equalTo(3000L));
+		assertThat(settings.getConnectionPoolSettings().getMaxWaitQueueSize(), equalTo(20 * 500));
+		assertThat(settings.getSocketSettings().getConnectTimeout(TimeUnit.MILLISECONDS), equalTo(10000));
+		assertThat(settings.getSocketSettings().getReadTimeout(TimeUnit.MILLISECONDS), equalTo(4000));
+		assertThat(settings.getReadPreference(), equalTo(ReadPreference.secondaryPreferred()));
+
+		// settings of the connection string win, except the read preference of the pool
+		config.put("connection_string", "mongodb://localhost:27017/catalogdb?maxPoolSize=7&readPreference=primary");
+		JsonObject clientConfig = MongoPools.clientConfig(config, "secondaryPreferred");
+		settings = new MongoClientOptionsParser(clientConfig).settings();
+		assertThat(settings.getConnectionPoolSettings().getMaxSize(), equalTo(7));
+		assertThat(settings.getReadPreference(), equalTo(ReadPreference.secondaryPreferred()));
+		assertThat(MongoPools.maxPoolSize(clientConfig), equalTo(7));
+	}
+
+	@Test
+	public void testPoolPerReadPreference() {
+		JsonObject config = new JsonObject().put("catalog.mongo.read.preference.getProducts", "secondaryPreferred")
+				.put("catalog.mongo.read.preference.getProduct", "secondaryPreferred");
+		Map<String, MongoClient> clients = new HashMap<>();
+		MongoPools pools = new MongoPools(config, Arrays.asList("getProducts", "getProduct", "getProductChanges"),
+				(clientConfig, readPreference) -> {
+					assertThat(clientConfig.getString("readPreference"), equalTo(readPreference));
+					MongoClient client = mock(MongoClient.class);
+					clients.put(readPreference, client);
+					return client;
+				});
+
+		assertThat(clients.size(), equalTo(2));
+		assertThat(pools.get("getProducts").client, sameInstance(clients.get("secondaryPreferred")));
+		assertThat(pools.get("getProduct").client, sameInstance(clients.get("secondaryPreferred")));
+		assertThat(pools.get("getProductChanges").client, sameInstance(clients.get("primary")));
+		// writes always go to the primary
+		assertThat(pools.get("addProduct").client, sameInstance(clients.get("primary")));
+	}
+
+	@Test
+	public void testUtilization() {
+		MongoPools pools = new MongoPools(mock(MongoClient.class),
+				new JsonObject().put("catalog.mongo.pool.max.size", 4));
+		@SuppressWarnings("unchecked")
+		Handler<AsyncResult<Void>>[] pending = new Handler[2];
+		pools.primary().<Void>execute((c, h) -> pending[0] = h, ar -> {
+		});
+		pools.primary().<Void>execute((c, h) -> pending[1] = h, ar -> {
+		});
+		JsonObject stats = pools.toJson().getJsonObject("primary");
+		assertThat(stats.getInteger("inFlight"), equalTo(2));
+		assertThat(stats.getInteger("utilization"), equalTo(50));
+
+		pending[0].handle(Future.succeededFuture());
+		pending[1].handle(Future.succeededFuture());
+		stats = pools.toJson().getJsonObject("primary");
+		assertThat(stats.getInteger("inFlight"), equalTo(0));
+		assertThat(stats.getInteger("peak"), equalTo(2));
+		assertThat(stats.getLong("calls"), equalTo(2L));
+	}
+}
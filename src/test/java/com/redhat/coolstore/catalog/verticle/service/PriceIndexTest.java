@@ -0,0 +1,87 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import io.vertx.core.json.JsonObject;
+
+public class PriceIndexTest {
+
+	@Test
+	public void testRange() {
+		PriceIndex index = new PriceIndex();
+		index.put("a", 30.0, 1);
+		index.put("b", 10.0, 1);
+		index.put("c", 20.0, 1);
+		index.put("d", 20.0, 1);
+		index.put("e", 40.0, 1);
+		assertThat(index.range(-Double.MAX_VALUE, Double.MAX_VALUE, 3, false), equalTo(Arrays.asList("b", "c", "d")));
+		assertThat(index.range(-Double.MAX_VALUE, Double.MAX_VALUE, 2, true), equalTo(Arrays.asList("e", "a")));
+		assertThat(index.range(15.0, 30.0, 10, false), equalTo(Arrays.asList("c", "d", "a")));
+		assertThat(index.range(15.0, 30.0, 10, true), equalTo(Arrays.asList("a", "d", "c")));
+		assertThat(index.range(50.0, 60.0, 10, false).size(), equalTo(0));
+	}
+
+	@Test
+	public void testVersions() {
+		PriceIndex index = new PriceIndex();
+		assertThat(index.put("a", 10.0, 2), equalTo(true));
+		// an older write arriving late is ignored
+		assertThat(index.put("a", 5.0, 1), equalTo(false));
+		assertThat(index.range(0, 100, 10, false), equalTo(Arrays.asList("a")));
+		assertThat(index.range(0, 6, 10, false).size(), equalTo(0));
+
+		assertThat(index.put("a", 50.0, 3), equalTo(true));
+		assertThat(index.range(0, 20, 10, false).size(), equalTo(0));
+		assertThat(index.size(), equalTo(1));
+
+		assertThat(index.remove("a", 4), equalTo(true));
+		assertThat(index.size(), equalTo(0));
+		// the tombstone keeps older writes out
+		assertThat(index.put("a", 50.0, 3), equalTo(false));
+		assertThat(index.size(), equalTo(0));
+
+		index.putAll(Arrays.asList(
+				new JsonObject().put("_id", "b").put("price", 1.0).put(CatalogServiceImpl.VERSION_FIELD, 1L),
+				new JsonObject().put("_id", "c").put(CatalogServiceImpl.DELETED_FIELD, true)
+						.put(CatalogServiceImpl.VERSION_FIELD, 1L)));
+		assertThat(index.range(0, 100, 10, false), equalTo(Arrays.asList("b")));
+	}
+
+	@Test
+	public void testRandomUpdates() {
+		PriceIndex index = new PriceIndex();
+		Map<String, Double> expected = new HashMap<>();
+		Random random = new Random(42);
+		for (int version = 1; version <= 20000; version++) {
+			String itemId = Integer.toString(random.nextInt(2000));
+			if (random.nextInt(10) == 0) {
+				index.remove(itemId, version);
+				expected.remove(itemId);
+			} else {
+				double price = random.nextInt(500) / 4.0;
+				index.put(itemId, price, version);
+				expected.put(itemId, price);
+			}
+		}
+		assertThat(index.size(), equalTo(expected.size()));
+		Comparator<Map.Entry<String, Double>> byPrice = Map.Entry.<String, Double>comparingByValue()
+				.thenComparing(Map.Entry.comparingByKey());
+		List<String> cheapest = expected.entrySet().stream().filter(e -> e.getValue() >= 20.0 && e.getValue() <= 80.0)
+				.sorted(byPrice).limit(50).map(Map.Entry::getKey).collect(Collectors.toList());
+		assertThat(index.range(20.0, 80.0, 50, false), equalTo(cheapest));
+		List<String> dearest = expected.entrySet().stream().sorted(byPrice.reversed()).limit(50)
+				.map(Map.Entry::getKey).collect(Collectors.toList());
+		assertThat(index.range(-Double.MAX_VALUE, Double.MAX_VALUE, 50, true), equalTo(dearest));
+	}
+}
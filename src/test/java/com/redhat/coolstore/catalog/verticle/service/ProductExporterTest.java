@@ -0,0 +1,203 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class ProductExporterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Vertx vertx;
+
+	private File dir;
+
+	private JsonObject config;
+
+	@Before
+	public void setUp() throws Exception {
+		vertx = Vertx.vertx();
+		dir = folder.newFolder("exports");
+		File products = folder.newFile("products.jsonl");
+		FileProductStore seed = new FileProductStore(
+				new JsonObject().put("catalog.store.file.path", products.getAbsolutePath()));
+		seed.open();
+		seed.saveAll(Arrays.asList(document("1", "Plain", 1), document("2", "Comma, \"quoted\"", 2),
+				new JsonObject().put("_id", "3").put("itemId", "3").put(CatalogServiceImpl.DELETED_FIELD, true)
+						.put(CatalogServiceImpl.VERSION_FIELD, 3L),
+				document("4", "Last", 4)));
+		seed.close();
+		config = new JsonObject().put("catalog.store.type", "file")
+				.put("catalog.store.file.path", products.getAbsolutePath()).put("catalog.export.dir", dir.getAbsolutePath())
+				.put("catalog.export.batch", 2).put("catalog.export.chunk", 2).put("catalog.export.keep", 1);
+	}
+
+	@After
+	public void tearDown(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	private JsonObject document(String id, String name, long version) {
+		return new JsonObject().put("_id", id).put("itemId", id).put("name", name).put("desc", "Desc " + id)
+				.put("price", 10.5).put(CatalogServiceImpl.VERSION_FIELD, version);
+	}
+
+	private static String gunzip(File file) throws Exception {
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) > 0;) {
+				out.write(buffer, 0, n);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Test
+	public void testExport(TestContext context) {
+		ProductStore store = ProductStore.create(vertx, config);
+		ProductExporter exporter = new ProductExporter(vertx, config, store);
+		JsonObject[] published = new JsonObject[1];
+		vertx.eventBus().<JsonObject>consumer(CatalogService.EXPORTS_ADDRESS, m -> published[0] = m.body());
+		Async async = context.async();
+		vertx.runOnContext(v -> store.open(context.asyncAssertSuccess(opened -> {
+			exporter.export(context.asyncAssertSuccess(manifest -> {
+				try {
+					assertThat(manifest.getInteger("products"), equalTo(3));
+					assertThat(manifest.getLong("version"), equalTo(4L));
+					assertThat(new JsonObject(
+							new String(Files.readAllBytes(new File(dir, "export.json").toPath()), StandardCharsets.UTF_8)),
+							equalTo(manifest));
+
+					JsonObject ndjson = manifest.getJsonObject("files").getJsonObject("ndjson");
+					String content = new String(Files.readAllBytes(new File(dir, ndjson.getString("file")).toPath()),
+							StandardCharsets.UTF_8);
+					String[] lines = content.split("\n");
+					assertThat(lines.length, equalTo(3));
+					assertThat(new JsonObject(lines[0]), equalTo(new JsonObject().put("itemId", "1").put("name", "Plain")
+							.put("desc", "Desc 1").put("price", 10.5)));
+					assertThat(ndjson.getLong("size"), equalTo((long) content.getBytes(StandardCharsets.UTF_8).length));
+					// the third record starts the second chunk
+					long third = (lines[0] + "\n" + lines[1] + "\n").getBytes(StandardCharsets.UTF_8).length;
+					assertThat(ndjson.getJsonArray("chunks"), equalTo(new JsonArray().add(0L).add(third)));
+					assertThat(gunzip(new File(dir, ndjson.getJsonObject("gzip").getString("file"))), equalTo(content));
+
+					JsonObject csv = manifest.getJsonObject("files").getJsonObject("csv");
+					String csvContent = new String(Files.readAllBytes(new File(dir, csv.getString("file")).toPath()),
+							StandardCharsets.UTF_8);
+					assertThat(csvContent, equalTo("itemId,name,desc,price\r\n1,Plain,Desc 1,10.5\r\n"
+							+ "2,\"Comma, \"\"quoted\"\"\",Desc 2,10.5\r\n4,Last,Desc 4,10.5\r\n"));
+					assertThat(csv.getString("contentType"), equalTo("text/csv; charset=utf-8"));
+				} catch (Exception e) {
+					context.fail(e);
+				}
+				vertx.setTimer(5, tid -> exporter.export(context.asyncAssertSuccess(next -> {
+					// same content, same ETag; the files of the first export are pruned
+					assertThat(next.getJsonObject("files").getJsonObject("ndjson").getString("etag"),
+							equalTo(manifest.getJsonObject("files").getJsonObject("ndjson").getString("etag")));
+					assertThat(new File(dir, manifest.getJsonObject("files").getJsonObject("ndjson").getString("file"))
+							.exists(), equalTo(false));
+					assertThat(dir.list().length, equalTo(5));
+					// the manifest is published too
+					vertx.setTimer(100, t -> {
+						assertThat(published[0], equalTo(next));
+						store.close(context.asyncAssertSuccess(closed -> async.complete()));
+					});
+				})));
+			}));
+		})));
+	}
+
+	@Test
+	public void testChangesDuringExport(TestContext context) {
+		FileProductStore file = spy(new FileProductStore(config));
+		AtomicBoolean changed = new AtomicBoolean();
+		// 1 is updated and 2 deleted once the first page is read
+		doAnswer(invocation -> {
+			@SuppressWarnings("unchecked")
+			List<JsonObject> page = (List<JsonObject>) invocation.callRealMethod();
+			if (changed.compareAndSet(false, true)) {
+				file.saveAll(Arrays.asList(document("1", "Renamed", 5),
+						new JsonObject().put("_id", "2").put("itemId", "2").put(CatalogServiceImpl.DELETED_FIELD, true)
+								.put(CatalogServiceImpl.VERSION_FIELD, 6L)));
+			}
+			return page;
+		}).when(file).findChanges(anyLong(), any(), anyInt());
+		ProductStore store = new BlockingStoreAdapter(vertx, file, config);
+		ProductExporter exporter = new ProductExporter(vertx, config.copy().put("catalog.export.formats",
+				new JsonArray().add("ndjson")), store);
+		Async async = context.async();
+		vertx.runOnContext(v -> store.open(context.asyncAssertSuccess(opened -> {
+			exporter.export(context.asyncAssertSuccess(manifest -> {
+				try {
+					assertThat(manifest.getInteger("products"), equalTo(2));
+					// the version of the store when the export started
+					assertThat(manifest.getLong("version"), equalTo(4L));
+					String content = new String(Files.readAllBytes(new File(dir,
+							manifest.getJsonObject("files").getJsonObject("ndjson").getString("file")).toPath()),
+							StandardCharsets.UTF_8);
+					String[] lines = content.split("\n");
+					assertThat(lines.length, equalTo(2));
+					assertThat(new JsonObject(lines[0]).getString("itemId"), equalTo("4"));
+					assertThat(new JsonObject(lines[1]).getString("name"), equalTo("Renamed"));
+				} catch (Exception e) {
+					context.fail(e);
+				}
+				store.close(context.asyncAssertSuccess(closed -> async.complete()));
+			}));
+		})));
+	}
+
+	@Test
+	public void testEpochVersions(TestContext context) throws Exception {
+		// versions are stamped from the clock, far beyond the Long cache
+		long epoch = 1760000000000L;
+		File products = folder.newFile("epoch.jsonl");
+		FileProductStore seed = new FileProductStore(
+				new JsonObject().put("catalog.store.file.path", products.getAbsolutePath()));
+		seed.open();
+		seed.saveAll(Arrays.asList(document("1", "First", epoch + 1), document("2", "Second", epoch + 2)));
+		seed.close();
+		JsonObject epochConfig = config.copy().put("catalog.store.file.path", products.getAbsolutePath());
+		ProductStore store = ProductStore.create(vertx, epochConfig);
+		ProductExporter exporter = new ProductExporter(vertx, epochConfig, store);
+		Async async = context.async();
+		vertx.runOnContext(v -> store.open(context.asyncAssertSuccess(opened -> {
+			exporter.export(context.asyncAssertSuccess(manifest -> {
+				assertThat(manifest.getInteger("products"), equalTo(2));
+				assertThat(manifest.getLong("version"), equalTo(epoch + 2));
+				store.close(context.asyncAssertSuccess(closed -> async.complete()));
+			}));
+		})));
+	}
+}
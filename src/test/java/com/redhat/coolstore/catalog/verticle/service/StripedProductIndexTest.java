@@ -0,0 +1,140 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import com.redhat.coolstore.catalog.model.Product;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class StripedProductIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Product product(String itemId, double price) {
+		Product product = new Product();
+		product.setItemId(itemId);
+		product.setName("Product " + itemId);
+		product.setPrice(price);
+		return product;
+	}
+
+	@Test
+	public void testStripes() {
+		assertThat(new StripedProductIndex(1).stripes(), equalTo(1));
+		assertThat(new StripedProductIndex(48).stripes(), equalTo(64));
+		assertThat(new StripedProductIndex(64).stripes(), equalTo(64));
+	}
+
+	@Test
+	public void testVersions() {
+		StripedProductIndex index = new StripedProductIndex(4);
+		assertThat(index.put(product("123456", 10.0), 2), equalTo(true));
+		// an older write arriving late is ignored
+		assertThat(index.put(product("123456", 5.0), 1), equalTo(false));
+		assertThat(index.get("123456").getPrice(), equalTo(10.0));
+
+		assertThat(index.remove("123456", 3), equalTo(true));
+		assertThat(index.get("123456"), nullValue());
+		assertThat(index.size(), equalTo(0));
+		// the tombstone keeps older writes out
+		assertThat(index.put(product("123456", 10.0), 2), equalTo(false));
+		assertThat(index.get("123456"), nullValue());
+
+		assertThat(index.put(product("123456", 20.0), 4), equalTo(true));
+		assertThat(index.size(), equalTo(1));
+	}
+
+	@Test
+	public void testPutAll() {
+		StripedProductIndex index = new StripedProductIndex(4);
+		index.put(product("111111", 10.0), 5);
+		index.putAll(Arrays.asList(
+				new JsonObject().put("_id", "111111").put("itemId", "111111").put("price", 1.0)
+						.put(CatalogServiceImpl.VERSION_FIELD, 3L),
+				new JsonObject().put("_id", "222222").put("itemId", "222222").put("price", 2.0),
+				new JsonObject().put("_id", "333333").put("itemId", "333333").put(CatalogServiceImpl.DELETED_FIELD, true)
+						.put(CatalogServiceImpl.VERSION_FIELD, 1L)));
+		assertThat(index.get("111111").getPrice(), equalTo(10.0));
+		assertThat(index.get("222222").getPrice(), equalTo(2.0));
+		assertThat(index.get("333333"), nullValue());
+		assertThat(index.size(), equalTo(2));
+		assertThat(index.values().size(), equalTo(2));
+	}
+
+	@Test
+	public void testConcurrentWriters() throws Exception {
+		StripedProductIndex index = new StripedProductIndex(8);
+		int threads = 4;
+		int products = 1000;
+		CountDownLatch done = new CountDownLatch(threads);
+		List<Thread> writers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int writer = t;
+			writers.add(new Thread(() -> {
+				// every writer updates every product, versions interleave
+				for (int version = 1; version <= 10; version++) {
+					for (int i = 0; i < products; i++) {
+						index.put(product(Integer.toString(i), version * threads + writer), version * threads + writer);
+					}
+				}
+				done.countDown();
+			}));
+		}
+		writers.forEach(Thread::start);
+		done.await();
+		assertThat(index.size(), equalTo(products));
+		for (int i = 0; i < products; i++) {
+			assertThat(index.get(Integer.toString(i)).getPrice(), equalTo(10.0 * threads + threads - 1));
+		}
+	}
+
+	@Test
+	public void testIndexedService(TestContext context) throws Exception {
+		Vertx vertx = Vertx.vertx();
+		JsonObject config = new JsonObject().put("catalog.index.enabled", true).put("catalog.store.file.path",
+				folder.newFile().getAbsolutePath());
+		ProductStore store = new BlockingStoreAdapter(vertx, new FileProductStore(config), config);
+		Async async = context.async();
+		store.open(context.asyncAssertSuccess(opened -> store.save(
+				new JsonObject().put("_id", "111111").put("itemId", "111111").put("name", "stored").put("price", 1.0),
+				context.asyncAssertSuccess(saved -> {
+					CatalogServiceImpl service = new CatalogServiceImpl(vertx, config, store);
+					service.start(context.asyncAssertSuccess(started -> {
+						service.addProduct(product("222222", 2.0), context.asyncAssertSuccess(added -> {
+							service.getProducts(context.asyncAssertSuccess(products -> {
+								assertThat(products.size(), equalTo(2));
+								service.getProduct("111111", context.asyncAssertSuccess(product -> {
+									assertThat(product.getName(), equalTo("stored"));
+									service.getProductsByPrice(0, 100, 1, true, context.asyncAssertSuccess(dearest -> {
+										assertThat(dearest.get(0).getItemId(), equalTo("222222"));
+										service.getStats(context.asyncAssertSuccess(stats -> {
+											assertThat(stats.getJsonObject("index").getInteger("products"), equalTo(2));
+											assertThat(stats.getJsonObject("index").getInteger("prices"), equalTo(2));
+											vertx.close(context.asyncAssertSuccess(closed -> async.complete()));
+										}));
+									}));
+								}));
+							}));
+						}));
+					}));
+				}))));
+	}
+}
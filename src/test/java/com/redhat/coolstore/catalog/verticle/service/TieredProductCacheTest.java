@@ -0,0 +1,183 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.redhat.coolstore.catalog.model.Product;
+import com.redhat.coolstore.catalog.model.ProductCodec;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class TieredProductCacheTest {
+
+	private static final int PRODUCTS = 20;
+
+	private final List<Vertx> nodes = new CopyOnWriteArrayList<>();
+
+	@After
+	public void tearDown(TestContext context) {
+		nodes.forEach(vertx -> vertx.close(context.asyncAssertSuccess()));
+	}
+
+	@Test
+	public void testRing() {
+		HashRing ring = new HashRing(Arrays.asList("a", "b", "c"), 64);
+		Map<String, String> owners = new HashMap<>();
+		Map<String, Integer> counts = new HashMap<>();
+		for (int i = 0; i < 3000; i++) {
+			String owner = ring.owner(Integer.toString(i));
+			owners.put(Integer.toString(i), owner);
+			counts.merge(owner, 1, Integer::sum);
+		}
+		assertThat(counts.size(), equalTo(3));
+		counts.values().forEach(count -> assertThat(count > 500, equalTo(true)));
+
+		// removing a member only moves its own keys
+		HashRing smaller = new HashRing(Arrays.asList("a", "c"), 64);
+		owners.forEach((key, owner) -> {
+			if (!owner.equals("b")) {
+				assertThat(smaller.owner(key), equalTo(owner));
+			} else {
+				assertThat(smaller.owner(key), not(equalTo("b")));
+			}
+		});
+		assertThat(new HashRing(Arrays.asList(), 64).owner("123456"), nullValue());
+	}
+
+	private ProductStore store(AtomicInteger loads) {
+		ProductStore store = mock(ProductStore.class);
+		doAnswer(invocation -> {
+			loads.incrementAndGet();
+			String itemId = invocation.getArgument(0);
+			Handler<AsyncResult<JsonObject>> handler = invocation.getArgument(1);
+			handler.handle(Future.succeededFuture(
+					new JsonObject().put("_id", itemId).put("itemId", itemId).put("name", "Product " + itemId).put("price", 1.0)));
+			return null;
+		}).when(store).findProduct(any(String.class), any());
+		return store;
+	}
+
+	private void clusteredService(TestContext context, JsonObject config, ProductStore store,
+			Handler<CatalogServiceImpl> handler) {
+		VertxOptions options = new VertxOptions().setClustered(true).setClusterHost("localhost")
+				.setClusterManager(new LocalClusterManager());
+		Vertx.clusteredVertx(options, context.asyncAssertSuccess(vertx -> {
+			nodes.add(vertx);
+			ProductCodec.register(vertx.eventBus());
+			vertx.runOnContext(v -> {
+				CatalogServiceImpl service = new CatalogServiceImpl(vertx, config, store);
+				service.start(context.asyncAssertSuccess(started -> handler.handle(service)));
+			});
+		}));
+	}
+
+	private void readAll(TestContext context, CatalogServiceImpl service, int from, Handler<Void> done) {
+		if (from == PRODUCTS) {
+			done.handle(null);
+			return;
+		}
+		String itemId = Integer.toString(100000 + from);
+		service.getProduct(itemId, context.asyncAssertSuccess(product -> {
+			assertThat(product.getItemId(), equalTo(itemId));
+			readAll(context, service, from + 1, done);
+		}));
+	}
+
+	@Test
+	public void testColdReplicaWarmsFromPeers(TestContext context) {
+		JsonObject config = new JsonObject().put("catalog.cache.enabled", true)
+				.put("catalog.cache.heartbeat.interval", 100L).put("catalog.cache.peer.timeout", 500L);
+		AtomicInteger loads = new AtomicInteger();
+		ProductStore store = store(loads);
+		Async async = context.async();
+		clusteredService(context, config, store, first -> readAll(context, first, 0, read -> {
+			assertThat(loads.get(), equalTo(PRODUCTS));
+			clusteredService(context, config, store, second -> readAll(context, second, 0, warmed -> {
+				// every product came from the cache of the first replica
+				assertThat(loads.get(), equalTo(PRODUCTS));
+				second.getStats(context.asyncAssertSuccess(stats -> {
+					JsonObject cache = stats.getJsonObject("cache");
+					assertThat(cache.getInteger("members"), equalTo(2));
+					assertThat(cache.getLong("loads"), equalTo(0L));
+					async.complete();
+				}));
+			}));
+		}));
+	}
+
+	@Test
+	public void testLoadsAfterStop(TestContext context) {
+		Vertx vertx = Vertx.vertx();
+		nodes.add(vertx);
+		ProductCodec.register(vertx.eventBus());
+		TieredProductCache cache = new TieredProductCache(vertx, new JsonObject());
+		JsonObject document = new JsonObject().put("_id", "111111").put("itemId", "111111");
+		Async async = context.async();
+		vertx.runOnContext(v -> cache.start(context.asyncAssertSuccess(started -> {
+			cache.stop();
+			// the ring is empty, the product is loaded locally
+			cache.getProduct("111111", h -> h.handle(Future.succeededFuture(document)),
+					context.asyncAssertSuccess(loaded -> {
+						assertThat(loaded, equalTo(document));
+						async.complete();
+					}));
+		})));
+	}
+
+	@Test
+	public void testLoadRacingWithChanges(TestContext context) {
+		Vertx vertx = Vertx.vertx();
+		vertx.exceptionHandler(context.exceptionHandler());
+		nodes.add(vertx);
+		ProductCodec.register(vertx.eventBus());
+		TieredProductCache cache = new TieredProductCache(vertx,
+				new JsonObject().put("catalog.cache.peer.timeout", 10L));
+		List<Handler<AsyncResult<JsonObject>>> loading = new CopyOnWriteArrayList<>();
+		Handler<Handler<AsyncResult<JsonObject>>> loader = loading::add;
+		Async async = context.async();
+		vertx.runOnContext(v -> cache.start(context.asyncAssertSuccess(started -> {
+			cache.getProduct("111111", loader, context.asyncAssertSuccess());
+			cache.getProduct("222222", loader, context.asyncAssertSuccess());
+			// a change of 222222 while both load
+			Product changed = new Product();
+			changed.setItemId("222222");
+			vertx.eventBus().publish(CatalogService.CHANGES_ADDRESS, changed);
+			vertx.setTimer(50, tid -> {
+				JsonObject document = new JsonObject().put("_id", "111111").put("itemId", "111111");
+				loading.get(0).handle(Future.succeededFuture(document));
+				loading.get(1).handle(Future.succeededFuture(document.copy().put("_id", "222222")));
+				cache.getProduct("111111", loader, context.asyncAssertSuccess());
+				cache.getProduct("222222", loader, res -> {
+				});
+				// 111111 was cached, the load of 222222 raced with its change
+				assertThat(loading.size(), equalTo(3));
+				async.complete();
+			});
+		})));
+	}
+}
@@ -0,0 +1,196 @@
+package com.redhat.coolstore.catalog.verticle.service;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+
+@RunWith(VertxUnitRunner.class)
+public class WriteBehindQueueTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Vertx vertx;
+
+	private Context context;
+
+	private MongoClient mongoClient;
+
+	private AtomicBoolean mongoAvailable = new AtomicBoolean();
+
+	private JsonObject config;
+
+	private ProductStore store;
+
+	private List<BulkOperation> written;
+
+	@Before
+	public void setUp(TestContext context) throws Exception {
+		vertx = Vertx.vertx();
+		this.context = vertx.getOrCreateContext();
+		mongoClient = mock(MongoClient.class);
+		doAnswer(invocation -> {
+			Handler<AsyncResult<MongoClientBulkWriteResult>> handler = invocation.getArgument(2);
+			List<BulkOperation> operations = invocation.getArgument(1);
+			if (mongoAvailable.get()) {
+				written = operations;
+				handler.handle(Future.succeededFuture(new MongoClientBulkWriteResult(0, 0, 0, operations.size(), null)));
+			} else {
+				handler.handle(Future.failedFuture("mongo is down"));
+			}
+			return null;
+		}).when(mongoClient).bulkWrite(eq("products"), anyList(), any());
+		config = new JsonObject().put("catalog.writebehind.journal.dir", folder.getRoot().getAbsolutePath())
+				.put("catalog.writebehind.flush.interval", 60000L);
+		store = new MongoProductStore(new MongoPools(mongoClient, config));
+	}
+
+	@After
+	public void tearDown(TestContext context) {
+		vertx.close(context.asyncAssertSuccess());
+	}
+
+	private JsonObject document(String id, double price) {
+		return new JsonObject().put("_id", id).put("itemId", id).put("price", price);
+	}
+
+	private int segmentFiles() {
+		File[] files = folder.getRoot().listFiles();
+		return files == null ? 0 : files.length;
+	}
+
+	@Test
+	public void testCoalescesPerItem(TestContext ctx) {
+		Async async = ctx.async();
+		context.runOnContext(v -> {
+			WriteBehindQueue queue = new WriteBehindQueue(vertx, store, config);
+			queue.open(ctx.asyncAssertSuccess(v1 -> {
+				queue.add(document("00001", 10.0), ctx.asyncAssertSuccess());
+				queue.add(document("00002", 20.0), ctx.asyncAssertSuccess());
+				queue.add(document("00001", 11.0), ctx.asyncAssertSuccess(v2 -> {
+					assertThat(queue.size(), equalTo(2));
+					assertThat(queue.get("00001").getDouble("price"), equalTo(11.0));
+					assertThat(queue.unflushed().size(), equalTo(2));
+					async.complete();
+				}));
+			}));
+		});
+	}
+
+	@Test
+	public void testReplaysUnflushedWritesOnOpen(TestContext ctx) {
+		Async async = ctx.async();
+		context.runOnContext(v -> {
+			WriteBehindQueue queue = new WriteBehindQueue(vertx, store, config);
+			queue.open(ctx.asyncAssertSuccess(v1 -> {
+				queue.add(document("00001", 10.0), ctx.asyncAssertSuccess());
+				queue.add(document("00001", 12.0), ctx.asyncAssertSuccess(v2 -> {
+					// Mongo is down: closing cannot flush and the journal is kept
+					queue.close(ar -> {
+						ctx.assertTrue(ar.failed());
+
+						mongoAvailable.set(true);
+						WriteBehindQueue restarted = new WriteBehindQueue(vertx, store, config);
+						restarted.open(ctx.asyncAssertSuccess(v3 -> {
+							// opening replays the journal and flushes it right away
+							vertx.setTimer(500, tid -> {
+								ctx.assertEquals(0, restarted.size());
+								ctx.assertEquals(1, segmentFiles());
+								async.complete();
+							});
+						}));
+					});
+				}));
+			}));
+		});
+	}
+
+	@Test
+	public void testFlushOnBatchSize(TestContext ctx) {
+		Async async = ctx.async();
+		mongoAvailable.set(true);
+		config.put("catalog.writebehind.batch.size", 2);
+		context.runOnContext(v -> {
+			WriteBehindQueue queue = new WriteBehindQueue(vertx, store, config);
+			queue.open(ctx.asyncAssertSuccess(v1 -> {
+				queue.add(document("00001", 10.0), ctx.asyncAssertSuccess());
+				queue.add(document("00002", 20.0), ctx.asyncAssertSuccess(v2 -> {
+					vertx.setTimer(500, tid -> {
+						ctx.assertEquals(0, queue.size());
+						async.complete();
+					});
+				}));
+			}));
+		});
+	}
+
+	@Test
+	public void testFailedAppendIsNotVisible(TestContext ctx) {
+		Async async = ctx.async();
+		mongoAvailable.set(true);
+		context.runOnContext(v -> {
+			WriteBehindQueue queue = new WriteBehindQueue(vertx, store, config);
+			queue.open(ctx.asyncAssertSuccess(v1 -> queue.close(ctx.asyncAssertSuccess(v2 -> {
+				// the journal is closed, the append fails
+				queue.add(document("00001", 10.0), ctx.asyncAssertFailure(e -> {
+					assertThat(queue.get("00001") == null, equalTo(true));
+					assertThat(queue.size(), equalTo(0));
+					async.complete();
+				}));
+			}))));
+		});
+	}
+
+	@Test
+	public void testStampsVersionOnFlush(TestContext ctx) {
+		Async async = ctx.async();
+		mongoAvailable.set(true);
+		config.put("catalog.writebehind.batch.size", 1);
+		context.runOnContext(v -> {
+			WriteBehindQueue queue = new WriteBehindQueue(vertx, store, config);
+			List<JsonObject> reported = new ArrayList<>();
+			queue.flushedHandler(reported::addAll);
+			queue.open(ctx.asyncAssertSuccess(v1 -> {
+				long accepted = CatalogServiceImpl.nextVersion();
+				queue.add(document("00001", 10.0).put(CatalogServiceImpl.VERSION_FIELD, accepted),
+						ctx.asyncAssertSuccess(v2 -> vertx.setTimer(200, tid -> {
+							long flushed = written.get(0).getDocument().getLong(CatalogServiceImpl.VERSION_FIELD);
+							assertThat(flushed > accepted, equalTo(true));
+							// the change is reported with the version stored
+							assertThat(reported.size(), equalTo(1));
+							assertThat(reported.get(0).getLong(CatalogServiceImpl.VERSION_FIELD), equalTo(flushed));
+							async.complete();
+						})));
+			}));
+		});
+	}
+}